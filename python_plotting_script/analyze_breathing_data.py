@@ -1,4 +1,5 @@
-from os.path import join, exists, split
+from os.path import join, exists, split, getsize
+import bisect
 import glob
 from matplotlib import pyplot as plt
 import struct
@@ -13,22 +14,329 @@ import markup
 input_data_folder = "~/SleepData"
 output_folder = "~/SleepData/plots"
 
+# Row widths of .dat files, newest first: with the on-device breath detector, with the on-device
+# filters, and the original layout. A row is a long timestamp and value_count - 1 floats.
+DAT_VALUE_COUNTS = (16, 15, 11)
+
+
+def _dat_value_count(filename):
+    """Infer the row width of a .dat file, which is not stored in the file.
+
+    A width fits if the file holds a whole number of rows and the timestamps of the first rows
+    increase by less than a minute; the timestamp check settles sizes that several widths divide.
+    Files cut short by a crash are matched on the timestamps alone.
+    """
+    size = getsize(filename)
+    with open(filename, "rb") as file_in:
+        data = file_in.read(8 + 5 * (8 + 4 * (max(DAT_VALUE_COUNTS) - 1)))
+
+    def fits(value_count, whole_rows):
+        stride = 8 + 4 * (value_count - 1)
+        if whole_rows and (size - 8) % stride != 0:
+            return False
+        times = [struct.unpack_from(">q", data, offset)[0]
+                 for offset in range(8, len(data) - 7, stride)][:5]
+        return all(0 <= later - earlier < 60e9 for earlier, later in zip(times, times[1:]))
+
+    for whole_rows in (True, False):
+        for value_count in DAT_VALUE_COUNTS:
+            if fits(value_count, whole_rows):
+                return value_count
+    return DAT_VALUE_COUNTS[0]
+
+
+# Channel names of the .rec rows stream, in the column order of the legacy .dat files.
+ROW_CHANNELS = ["projection_position", "projection_orientation", "azimuth", "pitch", "roll",
+                "thermistor_diff", "spo2", "pulse_rate", "perfusion_index", "mean_pleth",
+                "position_low_pass", "position_high_pass", "orientation_low_pass", "thermistor_low_pass",
+                "breath_rate", "thermistor"]
+
+REC_MAGIC = 0x534C4D52
+REC_TYPES = {1: ">i1", 2: ">i2", 3: ">i4", 4: ">i8", 5: ">f4", 6: ">f8"}
+# Version 2 chunks, index and trailer; see RecordingFormat in the recording module.
+REC_CHUNK_MAGIC = 0x43484E4B
+REC_INDEX_MAGIC = 0x494E4458
+REC_TRAILER_MAGIC = 0x534C4D49
+REC_TRAILER_SIZE = 12
+REC_ENCODING_ROWS = 0
+# Version 3 columnar chunks and channel codecs.
+REC_ENCODING_COLUMNS = 1
+REC_CODEC_RAW = 0
+REC_CODEC_GORILLA = 1
+REC_CODEC_RLE = 2
+REC_CODEC_DELTA_VARINT = 3
+REC_CHUNK_HEADER = struct.Struct(">IBBiqqi")
+REC_INDEX_ENTRY = np.dtype([("stream", ">u1"), ("first", ">i8"), ("last", ">i8"), ("offset", ">i8"), ("count", ">i4")])
+
+
+def _read_utf(data, offset):
+    length = struct.unpack_from(">H", data, offset)[0]
+    return data[offset + 2:offset + 2 + length].decode("utf-8"), offset + 2 + length
+
+
+def _parse_recording_header(data):
+    version, length = struct.unpack_from(">Hi", data, 4)
+    start_unix_millis, clock_origin_nanos = struct.unpack_from(">qq", data, 10)
+    clock_name, offset = _read_utf(data, 26)
+    stream_count = struct.unpack_from(">H", data, offset)[0]
+    offset += 2
+    streams = {}
+    for _ in range(stream_count):
+        stream_id = data[offset]
+        name, offset = _read_utf(data, offset + 1)
+        rate, channel_count = struct.unpack_from(">fH", data, offset)
+        offset += 6
+        channels = []
+        for _ in range(channel_count):
+            channel_name, offset = _read_utf(data, offset)
+            unit, offset = _read_utf(data, offset)
+            channels.append((channel_name, unit, data[offset], REC_CODEC_RAW))
+            offset += 1
+        streams[stream_id] = {"name": name, "rate": rate, "channels": channels}
+    if version >= 3:
+        for stream in streams.values():
+            stream["channels"] = [channel[:3] + (data[offset + index],)
+                                  for index, channel in enumerate(stream["channels"])]
+            offset += len(stream["channels"])
+    for stream in streams.values():
+        fields = [("timestamp", ">i8")] + [(channel[0], REC_TYPES[channel[2]]) for channel in stream["channels"]]
+        stream["dtype"] = np.dtype(fields)
+        stream["tagged_dtype"] = np.dtype([("stream", ">u1")] + fields)
+    header = {"version": version, "start_unix_millis": start_unix_millis,
+              "clock_origin_nanos": clock_origin_nanos, "clock_name": clock_name,
+              "streams": list(streams.values())}
+    return header, streams, 10 + length
+
+
+def _read_header_from(file):
+    prefix = file.read(10)
+    magic, length = struct.unpack_from(">I2xi", prefix, 0)
+    if magic != REC_MAGIC:
+        raise ValueError("{} is not a recording".format(file.name))
+    return _parse_recording_header(prefix + file.read(length))
+
+
+def _read_chunk_index(file, data_offset):
+    """Chunk index of a version 2 recording as a list of (stream id, first timestamp, last
+    timestamp, offset, record count): from the footer, or by walking the chunk headers when the
+    footer is missing (e.g. after a crash)."""
+    size = file.seek(0, 2)
+    if size - data_offset >= REC_TRAILER_SIZE + 8:
+        file.seek(size - REC_TRAILER_SIZE)
+        index_offset, magic = struct.unpack(">qI", file.read(REC_TRAILER_SIZE))
+        if magic == REC_TRAILER_MAGIC and data_offset <= index_offset <= size - REC_TRAILER_SIZE - 8:
+            file.seek(index_offset)
+            footer = file.read(size - REC_TRAILER_SIZE - index_offset)
+            index_magic, count = struct.unpack_from(">Ii", footer, 0)
+            if index_magic == REC_INDEX_MAGIC and len(footer) == 8 + count * REC_INDEX_ENTRY.itemsize:
+                return [tuple(int(value) for value in entry)
+                        for entry in np.frombuffer(footer, REC_INDEX_ENTRY, count, 8)]
+    entries = []
+    offset = data_offset
+    while size - offset >= REC_CHUNK_HEADER.size:
+        file.seek(offset)
+        magic, stream_id, _, count, first, last, length = REC_CHUNK_HEADER.unpack(file.read(REC_CHUNK_HEADER.size))
+        end = offset + REC_CHUNK_HEADER.size + length
+        if magic != REC_CHUNK_MAGIC or length < 0 or end > size:
+            break
+        entries.append((stream_id, first, last, offset, count))
+        offset = end
+    return entries
+
+
+def _varints(data):
+    values = []
+    value = shift = 0
+    for byte in data:
+        value |= (byte & 0x7F) << shift
+        shift += 7
+        if not byte & 0x80:
+            values.append(value)
+            value = shift = 0
+    return values
+
+
+def _unzigzag(value):
+    return (value >> 1) ^ -(value & 1)
+
+
+def _decode_timestamps(data, count):
+    values = []
+    previous = previous_delta = 0
+    for value in _varints(data)[:count]:
+        delta = _unzigzag(value) + previous_delta
+        previous += delta
+        previous_delta = delta if values else 0
+        values.append(previous)
+    return values
+
+
+def _decode_gorilla(data, count, channel_type):
+    width, field_bits = (64, 6) if channel_type == 6 else (32, 5)
+    bits = "".join(format(byte, "08b") for byte in data)
+    position = leading = trailing = 0
+    previous = None
+    values = []
+    for _ in range(count):
+        if previous is None:
+            previous = int(bits[:width], 2)
+            position = width
+        elif bits[position] == "1":
+            if bits[position + 1] == "1":
+                leading = int(bits[position + 2:position + 2 + field_bits], 2)
+                meaningful = int(bits[position + 2 + field_bits:position + 2 + 2 * field_bits], 2) + 1
+                trailing = width - leading - meaningful
+                position += 2 + 2 * field_bits
+            else:
+                position += 2
+            meaningful = width - leading - trailing
+            previous ^= int(bits[position:position + meaningful], 2) << trailing
+            position += meaningful
+        else:
+            position += 1
+        values.append(previous)
+    packed = struct.pack(">{}{}".format(count, "Q" if width == 64 else "I"), *values)
+    return np.frombuffer(packed, REC_TYPES[channel_type], count)
+
+
+def _decode_column(data, count, channel_type, codec):
+    if codec == REC_CODEC_RAW:
+        return np.frombuffer(data, REC_TYPES[channel_type], count)
+    if codec == REC_CODEC_GORILLA:
+        return _decode_gorilla(data, count, channel_type)
+    varints = _varints(data)
+    values = []
+    value = 0
+    if codec == REC_CODEC_RLE:
+        # Varint run length, then the zigzag delta to the value of the previous run.
+        for length, delta in zip(varints[0::2], varints[1::2]):
+            value += _unzigzag(delta)
+            values.extend([value] * length)
+    elif codec == REC_CODEC_DELTA_VARINT:
+        for delta in varints[:count]:
+            value += _unzigzag(delta)
+            values.append(value)
+    else:
+        raise ValueError("unknown codec {}".format(codec))
+    return values[:count]
+
+
+def _read_chunk(file, stream, offset):
+    file.seek(offset)
+    _, _, encoding, count, _, _, length = REC_CHUNK_HEADER.unpack(file.read(REC_CHUNK_HEADER.size))
+    payload = file.read(length)
+    if encoding == REC_ENCODING_ROWS:
+        return np.frombuffer(payload, stream["dtype"], count)
+    if encoding != REC_ENCODING_COLUMNS:
+        raise ValueError("unknown chunk encoding {}".format(encoding))
+    records = np.zeros(count, stream["dtype"])
+    position = 0
+    for index, name in enumerate(stream["dtype"].names):
+        column_length = struct.unpack_from(">i", payload, position)[0]
+        column = payload[position + 4:position + 4 + column_length]
+        position += 4 + column_length
+        if index == 0:
+            records[name] = _decode_timestamps(column, count)
+        else:
+            _, _, channel_type, codec = stream["channels"][index - 1]
+            records[name] = _decode_column(column, count, channel_type, codec)
+    return records
+
+
+def _as_columns(stream, records):
+    array = np.concatenate(records) if records else np.zeros(0, stream["dtype"])
+    return {name: array[name].astype(np.int64 if name == "timestamp" else np.float64)
+            for name in stream["dtype"].names}
+
+
+def read_recording(filename):
+    """Read a self-describing .rec recording.
+
+    Returns the header as a dict (version, start_unix_millis, clock_origin_nanos, clock_name and
+    streams with their channels) and a dict from stream name to a dict of numpy arrays, with the
+    record timestamps under "timestamp" and every channel under its name.
+    """
+    with open(filename, "rb") as file:
+        header, streams, data_offset = _read_header_from(file)
+        records = {stream_id: [] for stream_id in streams}
+        if header["version"] >= 2:
+            for stream_id, _, _, offset, _ in _read_chunk_index(file, data_offset):
+                records[stream_id].append(_read_chunk(file, streams[stream_id], offset))
+        else:
+            file.seek(data_offset)
+            data = file.read()
+            offset = 0
+            if len(streams) == 1:
+                # Only one record size: read every record at once, dropping a truncated last one.
+                (stream_id, stream), = streams.items()
+                count = len(data) // stream["tagged_dtype"].itemsize
+                records[stream_id].append(np.frombuffer(data, stream["tagged_dtype"], count))
+            else:
+                while offset < len(data):
+                    stream = streams[data[offset]]
+                    if offset + stream["tagged_dtype"].itemsize > len(data):
+                        break
+                    records[data[offset]].append(np.frombuffer(data, stream["tagged_dtype"], 1, offset))
+                    offset += stream["tagged_dtype"].itemsize
+    return header, {stream["name"]: _as_columns(stream, records[stream_id]) for stream_id, stream in streams.items()}
+
+
+def read_recording_window(filename, stream_name, start_nanos, end_nanos):
+    """Read the records of one stream with start_nanos <= timestamp <= end_nanos from a version 2
+    .rec recording, reading only the chunks that overlap the window.
+
+    Returns the header and a dict of numpy arrays like one stream of read_recording().
+    """
+    with open(filename, "rb") as file:
+        header, streams, data_offset = _read_header_from(file)
+        if header["version"] < 2:
+            raise ValueError("{} has no chunk index".format(filename))
+        stream_id, stream = next((stream_id, stream) for stream_id, stream in streams.items()
+                                 if stream["name"] == stream_name)
+        chunks = [entry for entry in _read_chunk_index(file, data_offset) if entry[0] == stream_id]
+        position = bisect.bisect_left([entry[2] for entry in chunks], start_nanos)
+        records = []
+        for _, first, _, offset, _ in chunks[position:]:
+            if first > end_nanos:
+                break
+            chunk = _read_chunk(file, stream, offset)
+            records.append(chunk[(chunk["timestamp"] >= start_nanos) & (chunk["timestamp"] <= end_nanos)])
+    return header, _as_columns(stream, records)
+
 
 class BreathingMonitorFile:
-    def __init__(self, filename):
-        value_count = 11
+    def __init__(self, filename, value_count=None):
+        # Recordings made before the on-device filters have value_count=11, before the on-device
+        # breath detector value_count=15. Inferred for .dat and text files when not given.
+        if value_count is None:
+            if filename.endswith(".dat"):
+                value_count = _dat_value_count(filename)
+            elif filename.endswith(".rec"):
+                value_count = 16
+            else:
+                with open(filename) as file_in:
+                    value_count = len(file_in.readline().split(","))
 
         self.filename = filename
         self.values = []
         self.values = [[] for _ in range(value_count)]
         self.start_unix_timestamp = None
 
-        if filename.endswith(".dat"):
+        if filename.endswith(".rec"):
+            header, streams = read_recording(filename)
+            rows = streams["rows"]
+            timestamps = rows["timestamp"]
+            self.start_unix_timestamp = (header["start_unix_millis"] +
+                                         (timestamps[0] - header["clock_origin_nanos"]) / 1.0e6) / 1.0e3
+            self.values = [timestamps] + [rows[name] if name in rows else np.zeros(len(timestamps))
+                                          for name in ROW_CHANNELS[:value_count - 1]]
+        elif filename.endswith(".dat"):
             with open(filename, "rb") as file_in:
                 self.start_unix_timestamp = struct.unpack(">q", file_in.read(8))[0] / 1.0e3
                 while True:
                     value_bytes = file_in.read(8 + (value_count - 1)*4)
-                    if not value_bytes:
+                    # A crash can leave a partly written last row.
+                    if len(value_bytes) < 8 + (value_count - 1)*4:
                         break
                     numbers = struct.unpack(">q{}f".format(value_count - 1), value_bytes)
                     for array, value in zip(self.values, numbers):
@@ -42,7 +350,12 @@ class BreathingMonitorFile:
                     array.append(value)
         self.values = [np.array(values, np.float64) for values in self.values]
         self.timestamps, self.positions, self.angles, self.azimuth, self.pitch, self.roll, self.thermistor, \
-            self.spo2, self.pulse_rate, self.perfusion_index, self.mean_spo2_wave = self.values
+            self.spo2, self.pulse_rate, self.perfusion_index, self.mean_spo2_wave = self.values[:11]
+        # Filtered on the device with the same Butterworth designs as below.
+        self.device_low_pass, self.device_high_pass, self.device_angles_low_pass, \
+            self.device_thermistor_low_pass = self.values[11:15] if value_count >= 15 else [None] * 4
+        # Rolling respiratory rate in breaths per minute, 0 while no breathing is detected.
+        self.device_breath_rate = self.values[15] if value_count >= 16 else None
         self.elapsed = self.timestamps / 1.0e9 - self.timestamps[0] / 1.0e9
         self.signal = self.positions
         self.thermistor = (self.thermistor - self.thermistor.mean()) * 0.02
@@ -60,8 +373,93 @@ class BreathingMonitorFile:
         self.thermistor_low_pass, _ = signal.lfilter(b, a, self.thermistor, zi=zi * self.thermistor[0])
 
 
+def _read_event_stream(filename, stream_name):
+    """Read one stream of a .rec recording; returns the unix start time in seconds and its columns."""
+    header, streams = read_recording(filename)
+    return header["start_unix_millis"] / 1.0e3, streams[stream_name]
+
+
+def read_pleth_file(filename):
+    """Read the full-rate pleth of a recording: the "pleth" stream of a .rec file, or the side file
+    written next to older .dat recordings.
+
+    Returns the unix start time in seconds, the per-sample timestamps in ns and the samples.
+    """
+    if filename.endswith(".rec"):
+        start_unix_timestamp, pleth = _read_event_stream(filename, "pleth")
+        return start_unix_timestamp, pleth["timestamp"], pleth["pleth"]
+    timestamps = []
+    samples = []
+    with open(filename, "rb") as file_in:
+        start_unix_timestamp = struct.unpack(">q", file_in.read(8))[0] / 1.0e3
+        while True:
+            header = file_in.read(10)
+            if len(header) < 10:
+                break
+            first_sample_nanos, count = struct.unpack(">qh", header)
+            block = file_in.read(count)
+            if len(block) < count:
+                break
+            timestamps.extend(first_sample_nanos + 10000000 * np.arange(count))
+            samples.extend(block)
+    return start_unix_timestamp, np.array(timestamps, np.int64), np.array(samples, np.float64)
+
+
+def read_odi_file(filename):
+    """Read the desaturation events of a recording: the "desaturations" stream of a .rec file, or
+    the .odi side file written next to older .dat recordings.
+
+    Returns the unix start time in seconds and an (n, 5) array of start, nadir and end timestamps
+    in ns and the baseline and nadir SpO2 in percent.
+    """
+    if filename.endswith(".rec"):
+        start_unix_timestamp, events = _read_event_stream(filename, "desaturations")
+        start = events["timestamp"].astype(np.float64)
+        return start_unix_timestamp, np.column_stack((
+            start, start + events["nadir_offset"] * 1.0e6, start + events["end_offset"] * 1.0e6,
+            events["baseline"] / 10.0, events["nadir"] / 10.0)).reshape(-1, 5)
+    events = []
+    with open(filename, "rb") as file_in:
+        start_unix_timestamp = struct.unpack(">q", file_in.read(8))[0] / 1.0e3
+        while True:
+            record = file_in.read(28)
+            if len(record) < 28:
+                break
+            start, nadir_time, end, baseline, nadir = struct.unpack(">qqqhh", record)
+            events.append((start, nadir_time, end, baseline / 10.0, nadir / 10.0))
+    return start_unix_timestamp, np.array(events, np.float64).reshape(-1, 5)
+
+
+def read_apnea_file(filename):
+    """Read the classified apnea events of a recording: the "apneas" stream of a .rec file, or the
+    .apnea side file written next to older .dat recordings.
+
+    Returns the unix start time in seconds and an (n, 6) array of start and end timestamps in ns,
+    type (1 obstructive, 2 central), mean effort/airflow correlation, nadir timestamp of the linked
+    desaturation in ns (0 if none) and its drop in percent.
+    """
+    if filename.endswith(".rec"):
+        start_unix_timestamp, events = _read_event_stream(filename, "apneas")
+        start = events["timestamp"].astype(np.float64)
+        drop = events["desaturation_drop"]
+        nadir_time = np.where(drop != 0, start + events["desaturation_nadir_offset"] * 1.0e6, 0.0)
+        return start_unix_timestamp, np.column_stack((
+            start, start + events["end_offset"] * 1.0e6, events["type"], events["correlation"],
+            nadir_time, drop / 10.0)).reshape(-1, 6)
+    events = []
+    with open(filename, "rb") as file_in:
+        start_unix_timestamp = struct.unpack(">q", file_in.read(8))[0] / 1.0e3
+        while True:
+            record = file_in.read(31)
+            if len(record) < 31:
+                break
+            start, end, event_type, correlation, nadir_time, drop = struct.unpack(">qqbfqh", record)
+            events.append((start, end, event_type, correlation, nadir_time, drop / 10.0))
+    return start_unix_timestamp, np.array(events, np.float64).reshape(-1, 6)
+
+
 def process_files():
-    files = sorted(glob.glob(join(input_data_folder, "*")))
+    files = sorted(glob.glob(join(input_data_folder, "*.dat")) + glob.glob(join(input_data_folder, "*.rec")))
     filename = files[-1]
     data = BreathingMonitorFile(filename)
 
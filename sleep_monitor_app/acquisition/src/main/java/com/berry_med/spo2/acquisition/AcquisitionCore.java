@@ -0,0 +1,112 @@
+package com.berry_med.spo2.acquisition;
+
+import java.util.ArrayList;
+
+/**
+ * Oximeter acquisition without any Android dependency: transport fan-in, the parser and the
+ * parameter snapshot. The Android layer only supplies {@link Transport}s
+ * and a {@link MonotonicClock}, so the whole hot path can run and be profiled on a plain JVM.
+ * Decoded frames always pass through the {@link DesaturationDetector} before the frame listener.
+ *
+ * Only one transport is active at a time: when one connects, the others are disconnected.
+ */
+public class AcquisitionCore implements TransportListener, FrameSink, ParseRunnable.OnDataChangeListener {
+    private final ParserPool mPool;
+    private final ParseRunnable mParser;
+    private final ArrayList<Transport> mTransports = new ArrayList<>();
+    private volatile Transport mActiveTransport = null;
+    private volatile FrameSink mFrameListener = null;
+    private final DesaturationDetector mDesaturationDetector = new DesaturationDetector();
+
+    public AcquisitionCore(MonotonicClock clock) {
+        this(ParserPool.getDefaultParserPool(), clock);
+    }
+
+    public AcquisitionCore(ParserPool pool, MonotonicClock clock) {
+        this.mPool = pool;
+        this.mParser = pool.newParser(this, clock);
+        this.mParser.setFrameListener(this);
+    }
+
+    public ParseRunnable getParser() {
+        return this.mParser;
+    }
+
+    public DesaturationDetector getDesaturationDetector() {
+        return this.mDesaturationDetector;
+    }
+
+    public Transport getActiveTransport() {
+        return this.mActiveTransport;
+    }
+
+    public void setFrameListener(FrameSink frameListener) {
+        this.mFrameListener = frameListener;
+    }
+
+    public void addTransport(Transport transport) {
+        synchronized (this.mTransports) {
+            this.mTransports.add(transport);
+        }
+        transport.open(this);
+    }
+
+    /* Closes every transport and hands the parser back to its pool. */
+    public void release() {
+        synchronized (this.mTransports) {
+            for (Transport transport : this.mTransports) {
+                transport.close();
+            }
+            this.mTransports.clear();
+        }
+        this.mActiveTransport = null;
+        this.mPool.release(this.mParser);
+    }
+
+    /* Copies the latest parameters into dst without locking, zeroing SpO2, PR and PI while they are invalid. */
+    public ParseRunnable.OxiParams readOxiParams(ParseRunnable.OxiParams dst) {
+        this.mParser.readOxiParams(dst);
+        if (!dst.isParamsValid()) {
+            dst.update(0, 0, 0);
+        }
+        return dst;
+    }
+
+    public void onTransportConnected(Transport transport) {
+        this.mActiveTransport = transport;
+        synchronized (this.mTransports) {
+            for (Transport other : this.mTransports) {
+                if (other != transport) {
+                    other.disconnect();
+                }
+            }
+        }
+        this.mParser.reset();
+        this.mParser.start();
+    }
+
+    public void onTransportDisconnected(Transport transport) {
+        if (this.mActiveTransport == transport) {
+            this.mActiveTransport = null;
+        }
+    }
+
+    public void onTransportData(Transport transport, byte[] data, int off, int len) {
+        this.mParser.add(data, off, len);
+    }
+
+    public void onFrames(FrameBlock frames) {
+        this.mDesaturationDetector.onFrames(frames);
+        FrameSink frameListener = this.mFrameListener;
+        if (frameListener != null) {
+            frameListener.onFrames(frames);
+        }
+    }
+
+    public void onPulseWaveDetected() {}
+
+    public void onSpO2ParamsChanged() {}
+
+    /* The pleth reaches the frame listener with the rest of each stamped block in onFrames(). */
+    public void onSpO2WaveChanged(int amp) {}
+}
@@ -0,0 +1,116 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Bulk decoder for the 5-byte BerryMed oximeter packet:
+ *
+ *   byte 0: sync bit 0x80, beat flag 0x40, PI in the low nibble
+ *   byte 1: pleth amplitude
+ *   byte 2: bit 0x40 is the high bit of the pulse rate
+ *   byte 3: pulse rate
+ *   byte 4: SpO2
+ *
+ * Only byte 0 has the high bit set, so any sync byte starts a new packet. A packet interrupted
+ * by a sync byte is dropped rather than completed with stale values, and bytes outside a packet
+ * are discarded; both are counted so a noisy link can be told apart from bad data.
+ *
+ * A packet may be split across calls to decode(); the partial packet is kept in the decoder.
+ * Decoded frames are written into a reused {@link FrameBlock} and handed to the sink whenever
+ * the block fills up and once more at the end of each call, so decoding never allocates.
+ */
+public class BerryMedDecoder {
+    public static final int PACKAGE_LEN = 5;
+    private final FrameBlock mBlock;
+    private final int[] mPacket = new int[PACKAGE_LEN];
+    /* Index of the next packet byte, 0 while waiting for a sync byte. */
+    private int mPacketPos = 0;
+    /* Written only by the decoding thread, readable from any thread. */
+    private volatile long mFramesDecoded = 0;
+    private volatile long mFramesDropped = 0;
+    private volatile long mResyncCount = 0;
+    private volatile long mBytesDiscarded = 0;
+
+    public BerryMedDecoder(int blockCapacity) {
+        this.mBlock = new FrameBlock(blockCapacity);
+    }
+
+    /* Drops any partially received packet. */
+    public void reset() {
+        if (this.mPacketPos > 0) {
+            this.mFramesDropped++;
+            this.mBytesDiscarded += this.mPacketPos;
+        }
+        this.mPacketPos = 0;
+    }
+
+    public long getFramesDecoded() {
+        return this.mFramesDecoded;
+    }
+
+    public long getFramesDropped() {
+        return this.mFramesDropped;
+    }
+
+    public long getResyncCount() {
+        return this.mResyncCount;
+    }
+
+    public long getBytesDiscarded() {
+        return this.mBytesDiscarded;
+    }
+
+    /* Returns the number of frames handed to the sink. */
+    public int decode(byte[] src, int off, int len, FrameSink sink) {
+        int frames = 0;
+        FrameBlock block = this.mBlock;
+        int[] packet = this.mPacket;
+        int end = off + len;
+        int dropped = 0;
+        int resyncs = 0;
+        int discarded = 0;
+        for (int i = off; i < end; i++) {
+            int dat = src[i] & 255;
+            if ((dat & 128) != 0) {
+                if (this.mPacketPos > 0) {
+                    dropped++;
+                    resyncs++;
+                    discarded += this.mPacketPos;
+                }
+                packet[0] = dat;
+                this.mPacketPos = 1;
+                continue;
+            }
+            if (this.mPacketPos == 0) {
+                discarded++;
+                continue;
+            }
+            packet[this.mPacketPos++] = dat;
+            if (this.mPacketPos < PACKAGE_LEN) {
+                continue;
+            }
+            this.mPacketPos = 0;
+            int n = block.count;
+            block.pleth[n] = packet[1];
+            block.pr[n] = packet[3] | ((packet[2] & 64) << 1);
+            block.spo2[n] = packet[4];
+            block.pi[n] = (byte) (packet[0] & 15);
+            block.beat[n] = (packet[0] & 64) != 0;
+            block.count = n + 1;
+            frames++;
+            if (block.isFull()) {
+                sink.onFrames(block);
+                block.clear();
+            }
+        }
+        if (block.count > 0) {
+            sink.onFrames(block);
+            block.clear();
+        }
+        this.mFramesDecoded += frames;
+        if (dropped > 0 || discarded > 0) {
+            this.mFramesDropped += dropped;
+            this.mResyncCount += resyncs;
+            this.mBytesDiscarded += discarded;
+        }
+        return frames;
+    }
+}
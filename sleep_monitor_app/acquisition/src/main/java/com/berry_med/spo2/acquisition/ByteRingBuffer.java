@@ -0,0 +1,143 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Single-producer/single-consumer byte ring between the transport thread (Bluetooth or USB)
+ * and the parser.
+ *
+ * The producer never blocks: a chunk that does not fit is dropped as a whole and counted,
+ * so a slow parser shows up in {@link #getDroppedBytes()} instead of stalling the link.
+ *
+ * Each chunk keeps the arrival time it was added with. The consumer never reads across a chunk
+ * boundary, so {@link #getReadChunkNanos()} is the arrival time of every byte of the last read.
+ * The ring itself never waits; the owner decides when to drain it.
+ */
+public class ByteRingBuffer {
+    private final byte[] mBuffer;
+    private final int mMask;
+    /* Written only by the consumer. */
+    private volatile long mHead = 0;
+    /* Written only by the producer. */
+    private volatile long mTail = 0;
+    private volatile long mOverflowCount = 0;
+    private volatile long mDroppedBytes = 0;
+    /* Byte position just past each chunk, and its arrival time. */
+    private final long[] mChunkEnd;
+    private final long[] mChunkNanos;
+    private final int mChunkMask;
+    /* Written only by the consumer. */
+    private volatile long mChunkHead = 0;
+    /* Producer only. */
+    private long mChunkTail = 0;
+    /* Consumer only. */
+    private long mReadChunkNanos = 0;
+
+    public ByteRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        this.mBuffer = new byte[capacity];
+        this.mMask = capacity - 1;
+        int chunks = Math.max(capacity / 4, 2);
+        this.mChunkEnd = new long[chunks];
+        this.mChunkNanos = new long[chunks];
+        this.mChunkMask = chunks - 1;
+    }
+
+    public int capacity() {
+        return this.mBuffer.length;
+    }
+
+    /* Number of bytes published but not yet consumed. */
+    public int size() {
+        return (int) (this.mTail - this.mHead);
+    }
+
+    /* Producer side. Returns false and counts the overflow if the chunk does not fit. */
+    public boolean add(byte[] src, int off, int len, long arrivalNanos) {
+        if (len <= 0) {
+            return true;
+        }
+        long tail = this.mTail;
+        long chunkTail = this.mChunkTail;
+        if (len > this.mBuffer.length - (int) (tail - this.mHead) || chunkTail - this.mChunkHead > this.mChunkMask) {
+            this.mOverflowCount++;
+            this.mDroppedBytes += len;
+            return false;
+        }
+        int start = (int) tail & this.mMask;
+        int first = Math.min(len, this.mBuffer.length - start);
+        System.arraycopy(src, off, this.mBuffer, start, first);
+        System.arraycopy(src, off + first, this.mBuffer, 0, len - first);
+        int slot = (int) chunkTail & this.mChunkMask;
+        this.mChunkEnd[slot] = tail + len;
+        this.mChunkNanos[slot] = arrivalNanos;
+        this.mChunkTail = chunkTail + 1;
+        /* Publishing the tail also publishes the chunk entry written above. */
+        this.mTail = tail + len;
+        return true;
+    }
+
+    /*
+     * Consumer side. Copies up to len bytes of the oldest chunk into dst without waiting;
+     * returns the number copied.
+     */
+    public int poll(byte[] dst, int off, int len) {
+        long head = this.mHead;
+        if (this.mTail == head) {
+            return 0;
+        }
+        long chunkHead = this.mChunkHead;
+        int slot = (int) chunkHead & this.mChunkMask;
+        long chunkEnd = this.mChunkEnd[slot];
+        int count = (int) Math.min(len, chunkEnd - head);
+        int start = (int) head & this.mMask;
+        int first = Math.min(count, this.mBuffer.length - start);
+        System.arraycopy(this.mBuffer, start, dst, off, first);
+        System.arraycopy(this.mBuffer, 0, dst, off + first, count - first);
+        this.mReadChunkNanos = this.mChunkNanos[slot];
+        this.mHead = head + count;
+        if (head + count == chunkEnd) {
+            this.mChunkHead = chunkHead + 1;
+        }
+        return count;
+    }
+
+    /* Consumer side. Arrival time of the chunk the last poll() read from. */
+    public long getReadChunkNanos() {
+        return this.mReadChunkNanos;
+    }
+
+    /* Position just past the last published byte; always a chunk boundary. Safe from any thread. */
+    public long getWritePosition() {
+        return this.mTail;
+    }
+
+    /* Consumer side. */
+    public void clear() {
+        clearTo(this.mTail);
+    }
+
+    /*
+     * Consumer side. Discards the bytes before position, a value of getWritePosition(), and keeps
+     * the chunks published after it.
+     */
+    public void clearTo(long position) {
+        long end = this.mHead;
+        long chunkHead = this.mChunkHead;
+        /* Every chunk up to position is visible; skip them until one ends at position. */
+        while (end < position) {
+            end = this.mChunkEnd[(int) chunkHead & this.mChunkMask];
+            chunkHead++;
+        }
+        if (end > this.mHead) {
+            this.mChunkHead = chunkHead;
+            this.mHead = end;
+        }
+    }
+
+    public long getOverflowCount() {
+        return this.mOverflowCount;
+    }
+
+    public long getDroppedBytes() {
+        return this.mDroppedBytes;
+    }
+}
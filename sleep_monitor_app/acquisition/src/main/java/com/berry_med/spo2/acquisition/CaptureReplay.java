@@ -0,0 +1,74 @@
+package com.berry_med.spo2.acquisition;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * Offline decoding of a raw oximeter capture (the bytes as received from the serial or BLE link)
+ * with the same {@link BerryMedDecoder} as the live path. Writes one CSV line per frame, with the
+ * frame number at the nominal 100 Hz rate since a raw capture has no arrival times, and the
+ * decoder counters at the end.
+ *
+ * Usage: java com.berry_med.spo2.acquisition.CaptureReplay capture.bin [chunkBytes]
+ */
+public class CaptureReplay implements FrameSink {
+    private final PrintStream mOut;
+    private long mFrameIndex = 0;
+
+    public CaptureReplay(PrintStream out) {
+        this.mOut = out;
+    }
+
+    public void onFrames(FrameBlock frames) {
+        for (int i = 0; i < frames.count; i++) {
+            this.mOut.print(this.mFrameIndex);
+            this.mOut.print(',');
+            this.mOut.print(frames.pleth[i]);
+            this.mOut.print(',');
+            this.mOut.print(frames.spo2[i]);
+            this.mOut.print(',');
+            this.mOut.print(frames.pr[i]);
+            this.mOut.print(',');
+            this.mOut.print((int) frames.pi[i]);
+            this.mOut.print(',');
+            this.mOut.println(frames.beat[i] ? 1 : 0);
+            this.mFrameIndex++;
+        }
+    }
+
+    /* Decodes the whole stream in reads of chunkBytes, like the link delivers it; returns the decoder for its counters. */
+    public BerryMedDecoder replay(InputStream in, int chunkBytes) throws IOException {
+        BerryMedDecoder decoder = new BerryMedDecoder(256);
+        byte[] buffer = new byte[chunkBytes];
+        this.mOut.println("frame,pleth,spo2,pulse_rate,pi,beat");
+        while (true) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                break;
+            }
+            decoder.decode(buffer, 0, read, this);
+        }
+        decoder.reset();
+        return decoder;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CaptureReplay capture.bin [chunkBytes]");
+            System.exit(2);
+        }
+        int chunkBytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            BerryMedDecoder decoder = new CaptureReplay(System.out).replay(in, chunkBytes);
+            System.out.flush();
+            System.err.println("frames=" + decoder.getFramesDecoded() + " dropped=" + decoder.getFramesDropped()
+                    + " resyncs=" + decoder.getResyncCount() + " bytesDiscarded=" + decoder.getBytesDiscarded());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Streaming oxygen desaturation detector and ODI accumulator, fed with stamped frame blocks on
+ * the parser thread. Work per frame is constant.
+ *
+ * SpO2 is averaged into one value per second (in tenths of a percent). The baseline is the mean
+ * of the last {@link #BASELINE_SECONDS} seconds outside of events. An event starts when the
+ * value falls 3% below the baseline, tracks its nadir and ends once the value is back within
+ * 1% of the baseline it started from. Events at least {@link #MIN_EVENT_SECONDS} long are
+ * counted as 3% events, and as 4% events too when the nadir is 4% or more below the baseline.
+ * The index is events per hour of valid signal, so finger-off periods do not dilute it.
+ *
+ * An event that has not recovered after {@link #MAX_EVENT_SECONDS} is taken for a baseline shift
+ * (the sensor moved, or a slow drift) rather than a desaturation: it is dropped without being
+ * counted or reported, like an event interrupted by invalid signal, and the baseline is relearned.
+ * Every reported event therefore ends at most MAX_EVENT_SECONDS after its start.
+ */
+public class DesaturationDetector implements FrameSink {
+    public static final int BASELINE_SECONDS = 120;
+    /* Seconds of valid signal needed before any event can start. */
+    public static final int MIN_BASELINE_SECONDS = 30;
+    public static final int MIN_EVENT_SECONDS = 10;
+    /* An event without recovery for this long is a baseline shift: it is dropped and the baseline relearned. */
+    public static final int MAX_EVENT_SECONDS = 180;
+    /* Invalid seconds that abort a running event. */
+    public static final int MAX_GAP_SECONDS = 10;
+    private static final long SECOND_NANOS = 1000000000L;
+    private static final int DROP_3 = 30;
+    private static final int DROP_4 = 40;
+    private static final int RECOVERY = 10;
+
+    public interface OnDesaturationListener {
+        /* Called on the parser thread; saturations are in tenths of a percent. */
+        void onDesaturation(long startNanos, long nadirNanos, long endNanos, int baseline, int nadir);
+    }
+
+    private volatile OnDesaturationListener mListener = null;
+
+    private final int[] mBaseline = new int[BASELINE_SECONDS];
+    private int mBaselineNext = 0;
+    private int mBaselineCount = 0;
+    private long mBaselineSum = 0;
+
+    private long mSecond = Long.MIN_VALUE;
+    private int mSecondSum = 0;
+    private int mSecondCount = 0;
+    private long mInvalidRun = 0;
+
+    private boolean mInEvent = false;
+    private long mEventStartNanos;
+    private int mEventBaseline;
+    private int mEventNadir;
+    private long mEventNadirNanos;
+
+    private volatile int mEvents3 = 0;
+    private volatile int mEvents4 = 0;
+    private volatile long mValidSeconds = 0;
+    private volatile int mLastValue = 0;
+
+    public void setListener(OnDesaturationListener listener) {
+        this.mListener = listener;
+    }
+
+    public void onFrames(FrameBlock frames) {
+        for (int i = 0; i < frames.count; i++) {
+            long second = frames.timestampNanos[i] / SECOND_NANOS;
+            if (second != this.mSecond) {
+                if (this.mSecond != Long.MIN_VALUE) {
+                    finishSecond();
+                    if (second > this.mSecond + 1) {
+                        onInvalidSeconds(second - this.mSecond - 1);
+                    }
+                }
+                this.mSecond = second;
+            }
+            int spo2 = frames.spo2[i];
+            if (spo2 > 0 && spo2 <= 100) {
+                this.mSecondSum += spo2;
+                this.mSecondCount++;
+            }
+        }
+    }
+
+    private void finishSecond() {
+        if (this.mSecondCount == 0) {
+            onInvalidSeconds(1);
+        } else {
+            int value = (this.mSecondSum * 10 + this.mSecondCount / 2) / this.mSecondCount;
+            onSecond(value, this.mSecond * SECOND_NANOS);
+        }
+        this.mSecondSum = 0;
+        this.mSecondCount = 0;
+    }
+
+    private void onSecond(int value, long nanos) {
+        this.mInvalidRun = 0;
+        this.mValidSeconds++;
+        this.mLastValue = value;
+        if (this.mInEvent) {
+            if (value < this.mEventNadir) {
+                this.mEventNadir = value;
+                this.mEventNadirNanos = nanos;
+            }
+            if (value >= this.mEventBaseline - RECOVERY) {
+                endEvent(nanos);
+                addBaseline(value);
+            } else if (nanos - this.mEventStartNanos >= MAX_EVENT_SECONDS * SECOND_NANOS) {
+                this.mInEvent = false;
+                clearBaseline();
+            }
+            return;
+        }
+        if (this.mBaselineCount >= MIN_BASELINE_SECONDS) {
+            int baseline = (int) (this.mBaselineSum / this.mBaselineCount);
+            if (value <= baseline - DROP_3) {
+                this.mInEvent = true;
+                this.mEventStartNanos = nanos;
+                this.mEventBaseline = baseline;
+                this.mEventNadir = value;
+                this.mEventNadirNanos = nanos;
+                return;
+            }
+        }
+        addBaseline(value);
+    }
+
+    private void onInvalidSeconds(long seconds) {
+        this.mInvalidRun += seconds;
+        if (this.mInEvent && this.mInvalidRun > MAX_GAP_SECONDS) {
+            this.mInEvent = false;
+        }
+        if (this.mInvalidRun > BASELINE_SECONDS) {
+            clearBaseline();
+        }
+    }
+
+    private void endEvent(long endNanos) {
+        this.mInEvent = false;
+        if (endNanos - this.mEventStartNanos < MIN_EVENT_SECONDS * SECOND_NANOS) {
+            return;
+        }
+        this.mEvents3++;
+        if (this.mEventBaseline - this.mEventNadir >= DROP_4) {
+            this.mEvents4++;
+        }
+        OnDesaturationListener listener = this.mListener;
+        if (listener != null) {
+            listener.onDesaturation(this.mEventStartNanos, this.mEventNadirNanos, endNanos, this.mEventBaseline, this.mEventNadir);
+        }
+    }
+
+    private void addBaseline(int value) {
+        if (this.mBaselineCount == BASELINE_SECONDS) {
+            this.mBaselineSum -= this.mBaseline[this.mBaselineNext];
+        } else {
+            this.mBaselineCount++;
+        }
+        this.mBaseline[this.mBaselineNext] = value;
+        this.mBaselineSum += value;
+        this.mBaselineNext = (this.mBaselineNext + 1) % BASELINE_SECONDS;
+    }
+
+    private void clearBaseline() {
+        this.mBaselineNext = 0;
+        this.mBaselineCount = 0;
+        this.mBaselineSum = 0;
+    }
+
+    public int getEventCount3() {
+        return this.mEvents3;
+    }
+
+    public int getEventCount4() {
+        return this.mEvents4;
+    }
+
+    public long getValidSeconds() {
+        return this.mValidSeconds;
+    }
+
+    /* Latest one-second SpO2 in tenths of a percent. */
+    public int getLastValue() {
+        return this.mLastValue;
+    }
+
+    /* 3% desaturations per hour of valid signal. */
+    public float getOdi3() {
+        return perHour(this.mEvents3);
+    }
+
+    public float getOdi4() {
+        return perHour(this.mEvents4);
+    }
+
+    private float perHour(int events) {
+        long seconds = this.mValidSeconds;
+        if (seconds == 0) {
+            return 0.0f;
+        }
+        return (events * 3600.0f) / ((float) seconds);
+    }
+}
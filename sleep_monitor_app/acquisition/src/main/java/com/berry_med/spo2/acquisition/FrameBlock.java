@@ -0,0 +1,39 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Preallocated struct-of-arrays holding decoded BerryMed frames.
+ * Only the first {@link #count} entries of each array are valid.
+ */
+public final class FrameBlock {
+    public final int[] pleth;
+    public final int[] spo2;
+    public final int[] pr;
+    public final byte[] pi;
+    public final boolean[] beat;
+    /* Filled in by FrameTimeline: frame number at the nominal rate, and its estimated time. */
+    public final long[] sampleIndex;
+    public final long[] timestampNanos;
+    public int count = 0;
+
+    public FrameBlock(int capacity) {
+        this.pleth = new int[capacity];
+        this.spo2 = new int[capacity];
+        this.pr = new int[capacity];
+        this.pi = new byte[capacity];
+        this.beat = new boolean[capacity];
+        this.sampleIndex = new long[capacity];
+        this.timestampNanos = new long[capacity];
+    }
+
+    public int capacity() {
+        return this.pleth.length;
+    }
+
+    public boolean isFull() {
+        return this.count == this.pleth.length;
+    }
+
+    public void clear() {
+        this.count = 0;
+    }
+}
@@ -0,0 +1,6 @@
+package com.berry_med.spo2.acquisition;
+
+public interface FrameSink {
+    /* The block is reused by the decoder once this returns; copy anything that must be kept. */
+    void onFrames(FrameBlock frames);
+}
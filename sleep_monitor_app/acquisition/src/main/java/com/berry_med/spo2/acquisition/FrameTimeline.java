@@ -0,0 +1,94 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Reconstructs per-frame sample indices and timestamps from transport chunk arrival times.
+ *
+ * The oximeter sends frames at a fixed nominal rate, but they reach us in bursts with variable
+ * latency. Frame n is placed at origin + n * period, where the origin follows the earliest
+ * arrivals seen (the least delayed chunks) and creeps forward slowly to absorb clock drift.
+ * A chunk arriving much later than its frames could have been sent means frames were lost on
+ * the link; the index skips ahead so that later frames keep their true position in time.
+ *
+ * Timestamps are strictly increasing: when an early chunk moves the origin back, frames are
+ * still stamped at least one period after the last stamp, and the new origin takes effect at the
+ * next gap or once the drift has caught up.
+ */
+public class FrameTimeline {
+    /* Smallest lag treated as lost frames rather than latency. */
+    private static final long MIN_GAP_NANOS = 100000000L;
+    private static final int DRIFT_SHIFT = 10;
+    private static final int JITTER_SHIFT = 4;
+    private final long mPeriodNanos;
+    private boolean mStarted = false;
+    private long mOriginNanos = 0;
+    private long mNextIndex = 0;
+    /* Kept across reset() so that a new connection never stamps before the old one. */
+    private long mLastStampNanos = Long.MIN_VALUE;
+    private volatile long mJitterNanos = 0;
+    private volatile long mGapCount = 0;
+    private volatile long mMissingSamples = 0;
+
+    public FrameTimeline(long periodNanos) {
+        this.mPeriodNanos = periodNanos;
+    }
+
+    public void reset() {
+        this.mStarted = false;
+        this.mNextIndex = 0;
+    }
+
+    /* Stamps the frames of block, which all arrived in a chunk received at arrivalNanos. */
+    public void stamp(FrameBlock block, long arrivalNanos) {
+        int count = block.count;
+        if (count == 0) {
+            return;
+        }
+        long period = this.mPeriodNanos;
+        if (!this.mStarted) {
+            this.mStarted = true;
+            this.mOriginNanos = arrivalNanos - (count - 1) * period;
+            this.mNextIndex = 0;
+        }
+        long lag = arrivalNanos - (this.mOriginNanos + (this.mNextIndex + count - 1) * period);
+        if (lag < 0) {
+            this.mOriginNanos += lag;
+            lag = 0;
+        } else if (lag > Math.max(MIN_GAP_NANOS, 4 * this.mJitterNanos)) {
+            /* Part of the lag is ordinary latency; only the rest is frames that never came. */
+            long missing = (lag - this.mJitterNanos + period / 2) / period;
+            this.mNextIndex += missing;
+            this.mGapCount++;
+            this.mMissingSamples += missing;
+            lag -= missing * period;
+        } else {
+            this.mOriginNanos += lag >> DRIFT_SHIFT;
+        }
+        this.mJitterNanos += (lag - this.mJitterNanos) >> JITTER_SHIFT;
+        long index = this.mNextIndex;
+        long last = this.mLastStampNanos;
+        for (int i = 0; i < count; i++) {
+            long timestamp = this.mOriginNanos + (index + i) * period;
+            if (timestamp - period < last) {
+                timestamp = last + period;
+            }
+            block.sampleIndex[i] = index + i;
+            block.timestampNanos[i] = timestamp;
+            last = timestamp;
+        }
+        this.mLastStampNanos = last;
+        this.mNextIndex = index + count;
+    }
+
+    /* Smoothed delay of chunk arrivals behind the reconstructed frame times. */
+    public long getJitterNanos() {
+        return this.mJitterNanos;
+    }
+
+    public long getGapCount() {
+        return this.mGapCount;
+    }
+
+    public long getMissingSamples() {
+        return this.mMissingSamples;
+    }
+}
@@ -0,0 +1,15 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Time source for chunk arrival stamps. On Android this is SystemClock.elapsedRealtimeNanos(),
+ * which shares its time base with sensor event timestamps.
+ */
+public interface MonotonicClock {
+    MonotonicClock SYSTEM = new MonotonicClock() {
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
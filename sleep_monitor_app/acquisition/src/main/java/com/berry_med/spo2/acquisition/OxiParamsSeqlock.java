@@ -0,0 +1,54 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * Publishes the latest oximeter parameters from the parser thread to any number of readers.
+ *
+ * Single writer: the sequence number is odd while a publish is in progress, and readers retry
+ * until they see the same even sequence before and after copying the fields. Neither side
+ * allocates or takes a lock, and a reader never sees SpO2, pulse rate and PI from different frames.
+ */
+public class OxiParamsSeqlock {
+    private volatile int mSeq = 0;
+    private volatile int mSpo2 = 0;
+    private volatile int mPulseRate = 0;
+    private volatile int mPi = 0;
+    private volatile long mFrameCount = 0;
+    private volatile long mTimestampNanos = 0;
+
+    /* Writer side; must only be called from one thread. */
+    public void publish(int spo2, int pulseRate, int pi, long frameCount, long timestampNanos) {
+        int seq = this.mSeq;
+        this.mSeq = seq + 1;
+        this.mSpo2 = spo2;
+        this.mPulseRate = pulseRate;
+        this.mPi = pi;
+        this.mFrameCount = frameCount;
+        this.mTimestampNanos = timestampNanos;
+        this.mSeq = seq + 2;
+    }
+
+    /* Copies a consistent snapshot into dst and returns it. */
+    public ParseRunnable.OxiParams read(ParseRunnable.OxiParams dst) {
+        while (true) {
+            int seq = this.mSeq;
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            int spo2 = this.mSpo2;
+            int pulseRate = this.mPulseRate;
+            int pi = this.mPi;
+            long frameCount = this.mFrameCount;
+            long timestampNanos = this.mTimestampNanos;
+            if (seq == this.mSeq) {
+                dst.update(spo2, pulseRate, pi, frameCount, timestampNanos);
+                return dst;
+            }
+        }
+    }
+
+    /* Number of frames published so far; cheap way for a poller to see whether anything changed. */
+    public long getFrameCount() {
+        return this.mFrameCount;
+    }
+}
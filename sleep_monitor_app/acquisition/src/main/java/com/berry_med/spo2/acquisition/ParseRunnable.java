@@ -0,0 +1,308 @@
+package com.berry_med.spo2.acquisition;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+//import android.support.p000v4.media.TransportMediator;
+
+public class ParseRunnable implements Runnable, FrameSink {
+    private static final int RING_CAPACITY = 4096;
+    private static final int READ_CHUNK_LEN = 256;
+    /* Upper bound on the work of one run() pass before the task yields its pool thread. */
+    private static final int MAX_READS_PER_RUN = 64;
+    /* The BerryMed module streams 100 frames per second. */
+    public static final long SAMPLE_PERIOD_NANOS = 10000000L;
+    private volatile boolean isStop = false;
+    /* Ring write position to discard up to on the next pass, or -1. */
+    private final AtomicLong mResetPosition = new AtomicLong(-1);
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+    private final ParserPool mPool;
+    private final MonotonicClock mClock;
+    private OnDataChangeListener mOnDataChangeListener;
+    private OnWaveBlockListener mOnWaveBlockListener = null;
+    /* Last decoded values, only touched by the parser thread. */
+    private OxiParams mOxiParams = new OxiParams();
+    private OxiParamsSeqlock mOxiSnapshot = new OxiParamsSeqlock();
+    private long mFrameCount = 0;
+    private FrameTimeline mTimeline = new FrameTimeline(SAMPLE_PERIOD_NANOS);
+    private long mChunkNanos = 0;
+    private volatile FrameSink mFrameListener = null;
+    private ByteRingBuffer oxiData = new ByteRingBuffer(RING_CAPACITY);
+    private byte[] readBuf = new byte[READ_CHUNK_LEN];
+    private BerryMedDecoder mDecoder = new BerryMedDecoder(READ_CHUNK_LEN / BerryMedDecoder.PACKAGE_LEN + 1);
+
+    public interface OnDataChangeListener {
+        void onPulseWaveDetected();
+
+        void onSpO2ParamsChanged();
+
+        void onSpO2WaveChanged(int i);
+    }
+
+    /**
+     * Optional batched form of {@link OnDataChangeListener#onSpO2WaveChanged(int)}. Listeners that
+     * also implement this get one call per decoded chunk instead of one call per pleth sample.
+     * The samples array is reused by the parser once the call returns.
+     */
+    public interface OnWaveBlockListener {
+        void onSpO2WaveBlock(int[] samples, long firstSampleNanos, int count);
+    }
+
+    static final public class OxiParams {
+        public int PI_INVALID_VALUE = 15;
+        public int PR_INVALID_VALUE = 255;
+        public int SPO2_INVALID_VALUE = 127;//TransportMediator.KEYCODE_MEDIA_PAUSE;
+        /* access modifiers changed from: private */
+
+        /* renamed from: pi */
+        public int f26pi;
+        /* access modifiers changed from: private */
+        public int pulseRate;
+        /* access modifiers changed from: private */
+        public int spo2;
+        /* Frames decoded by the parser up to and including these values. */
+        public long frameCount;
+        /* Estimated time of the frame, in the parser's clock. */
+        public long timestampNanos;
+
+        public OxiParams() {
+        }
+
+        /* access modifiers changed from: private */
+        public void update(int spo22, int pulseRate2, int pi) {
+            this.spo2 = spo22;
+            this.pulseRate = pulseRate2;
+            this.f26pi = pi;
+        }
+
+        public void update(int spo22, int pulseRate2, int pi, long frameCount2, long timestampNanos2) {
+            update(spo22, pulseRate2, pi);
+            this.frameCount = frameCount2;
+            this.timestampNanos = timestampNanos2;
+        }
+
+        public int getSpo2() {
+            return this.spo2;
+        }
+
+        public int getPulseRate() {
+            return this.pulseRate;
+        }
+
+        public int getPi() {
+            return this.f26pi;
+        }
+
+        public long getFrameCount() {
+            return this.frameCount;
+        }
+
+        public long getTimestampNanos() {
+            return this.timestampNanos;
+        }
+
+        public boolean isParamsValid() {
+            if (this.spo2 == this.SPO2_INVALID_VALUE || this.pulseRate == this.PR_INVALID_VALUE || this.f26pi == this.PI_INVALID_VALUE || this.spo2 == 0 || this.pulseRate == 0 || this.f26pi == 0) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public ParseRunnable(OnDataChangeListener onDataChangeListener) {
+        this(onDataChangeListener, ParserPool.getDefaultParserPool(), MonotonicClock.SYSTEM);
+    }
+
+    ParseRunnable(OnDataChangeListener onDataChangeListener, ParserPool pool, MonotonicClock clock) {
+        this.mPool = pool;
+        this.mClock = clock;
+        this.mOnDataChangeListener = onDataChangeListener;
+        if (onDataChangeListener instanceof OnWaveBlockListener) {
+            this.mOnWaveBlockListener = (OnWaveBlockListener) onDataChangeListener;
+        }
+    }
+
+    /* Allocates a new snapshot; prefer readOxiParams() on hot paths. */
+    public OxiParams getOxiParams() {
+        return readOxiParams(new OxiParams());
+    }
+
+    /* Copies a consistent snapshot of the latest parameters into dst; safe from any thread. */
+    public OxiParams readOxiParams(OxiParams dst) {
+        return this.mOxiSnapshot.read(dst);
+    }
+
+    public void add(byte[] data) {
+        add(data, 0, data.length);
+    }
+
+    /*
+     * Called from the transport thread; never blocks. Chunks that do not fit are counted and dropped.
+     * The arrival time is taken here so that parser scheduling does not skew frame timestamps.
+     */
+    public void add(byte[] data, int off, int len) {
+        if (this.isStop) {
+            return;
+        }
+        if (this.oxiData.add(data, off, len, this.mClock.nanoTime())) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (this.mScheduled.compareAndSet(false, true)) {
+            this.mPool.execute(this);
+        }
+    }
+
+    /*
+     * Receives every decoded block on the parser thread, with sampleIndex and timestampNanos
+     * (in the time base of the parser's clock) filled in.
+     */
+    public void setFrameListener(FrameSink frameListener) {
+        this.mFrameListener = frameListener;
+    }
+
+    public long getGapCount() {
+        return this.mTimeline.getGapCount();
+    }
+
+    public long getMissingSamples() {
+        return this.mTimeline.getMissingSamples();
+    }
+
+    public long getJitterNanos() {
+        return this.mTimeline.getJitterNanos();
+    }
+
+    public long getOverflowCount() {
+        return this.oxiData.getOverflowCount();
+    }
+
+    public long getDroppedBytes() {
+        return this.oxiData.getDroppedBytes();
+    }
+
+    public long getFramesDecoded() {
+        return this.mDecoder.getFramesDecoded();
+    }
+
+    public long getFramesDropped() {
+        return this.mDecoder.getFramesDropped();
+    }
+
+    public long getResyncCount() {
+        return this.mDecoder.getResyncCount();
+    }
+
+    public long getBytesDiscarded() {
+        return this.mDecoder.getBytesDiscarded();
+    }
+
+    /*
+     * One decode pass on a pool thread, scheduled by add(). Drains a bounded number of chunks and
+     * reschedules itself if more are waiting, so parsers sharing the pool take turns.
+     */
+    public void run() {
+        try {
+            long resetPosition = this.mResetPosition.getAndSet(-1);
+            if (resetPosition >= 0) {
+                this.oxiData.clearTo(resetPosition);
+                this.mDecoder.reset();
+                this.mTimeline.reset();
+            }
+            for (int reads = 0; reads < MAX_READS_PER_RUN && !this.isStop; reads++) {
+                int len = this.oxiData.poll(this.readBuf, 0, this.readBuf.length);
+                if (len == 0) {
+                    break;
+                }
+                this.mChunkNanos = this.oxiData.getReadChunkNanos();
+                this.mDecoder.decode(this.readBuf, 0, len, this);
+            }
+        } finally {
+            /* Also when a listener throws, or the parser would never be scheduled again. */
+            this.mScheduled.set(false);
+            if (!this.isStop && (this.oxiData.size() > 0 || this.mResetPosition.get() >= 0)) {
+                schedule();
+            }
+        }
+    }
+
+    public void onFrames(FrameBlock frames) {
+        this.mTimeline.stamp(frames, this.mChunkNanos);
+        FrameSink frameListener = this.mFrameListener;
+        if (frameListener != null) {
+            frameListener.onFrames(frames);
+        }
+        if (this.mOnWaveBlockListener != null) {
+            this.mOnWaveBlockListener.onSpO2WaveBlock(frames.pleth, frames.timestampNanos[0], frames.count);
+        }
+        for (int i = 0; i < frames.count; i++) {
+            int spo2 = frames.spo2[i];
+            int pulseRate = frames.pr[i];
+            int pi = frames.pi[i];
+            this.mFrameCount++;
+            this.mOxiSnapshot.publish(spo2, pulseRate, pi, this.mFrameCount, frames.timestampNanos[i]);
+            if (!(spo2 == this.mOxiParams.spo2 && pulseRate == this.mOxiParams.pulseRate && pi == this.mOxiParams.f26pi)) {
+                this.mOxiParams.update(spo2, pulseRate, pi);
+                this.mOnDataChangeListener.onSpO2ParamsChanged();
+            }
+            if (this.mOnWaveBlockListener == null) {
+                this.mOnDataChangeListener.onSpO2WaveChanged(frames.pleth[i]);
+            }
+            if (frames.beat[i]) {
+                this.mOnDataChangeListener.onPulseWaveDetected();
+            }
+        }
+    }
+
+    /* Stops decoding; chunks added afterwards are ignored until start() is called. */
+    public void stop() {
+        this.isStop = true;
+    }
+
+    public void start() {
+        this.isStop = false;
+        if (this.oxiData.size() > 0) {
+            schedule();
+        }
+    }
+
+    /*
+     * Drops the bytes buffered so far, any partial packet and the frame timeline before the next
+     * pass, e.g. when the same parser is reused for a new connection. Bytes added after this call
+     * are kept, even if the new connection delivers them before the pass runs.
+     */
+    public void reset() {
+        this.mResetPosition.set(this.oxiData.getWritePosition());
+        schedule();
+    }
+
+    public boolean isStopped() {
+        return this.isStop;
+    }
+
+    public static float getFloatPi(int pi) {
+        switch (pi) {
+            case 0:
+                return 0.1f;
+            case 1:
+                return 0.2f;
+            case 2:
+                return 0.4f;
+            case 3:
+                return 0.7f;
+            case 4:
+                return 1.4f;
+            case 5:
+                return 2.7f;
+            case 6:
+                return 5.3f;
+            case 7:
+                return 10.3f;
+            case 8:
+                return 20.0f;
+            default:
+                return 0.0f;
+        }
+    }
+}
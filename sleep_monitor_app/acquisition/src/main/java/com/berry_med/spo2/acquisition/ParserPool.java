@@ -0,0 +1,94 @@
+package com.berry_med.spo2.acquisition;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed pool that runs any number of {@link ParseRunnable}s as event-driven tasks.
+ *
+ * A parser only occupies a thread while it has bytes to decode, so several oximeters share the
+ * same threads and the thread count stays constant however often the links drop and reconnect.
+ */
+public class ParserPool {
+    public static final int DEFAULT_THREADS = 2;
+    private static ParserPool mDefaultPool = null;
+    private final ExecutorService mExecutor;
+    private final ArrayList<ParseRunnable> mParsers = new ArrayList<>();
+
+    public ParserPool(int threads) {
+        this.mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "oximeter-parser-" + (this.mCount++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static synchronized ParserPool getDefaultParserPool() {
+        if (mDefaultPool == null) {
+            mDefaultPool = new ParserPool(DEFAULT_THREADS);
+        }
+        return mDefaultPool;
+    }
+
+    /* Creates a parser whose decoding runs on this pool, stamping chunks with the system clock. */
+    public ParseRunnable newParser(ParseRunnable.OnDataChangeListener listener) {
+        return newParser(listener, MonotonicClock.SYSTEM);
+    }
+
+    public ParseRunnable newParser(ParseRunnable.OnDataChangeListener listener, MonotonicClock clock) {
+        ParseRunnable parser = new ParseRunnable(listener, this, clock);
+        synchronized (this.mParsers) {
+            this.mParsers.add(parser);
+        }
+        return parser;
+    }
+
+    /* Stops the parser and forgets it; bytes it still holds are discarded. */
+    public void release(ParseRunnable parser) {
+        parser.stop();
+        synchronized (this.mParsers) {
+            this.mParsers.remove(parser);
+        }
+    }
+
+    void execute(Runnable task) {
+        try {
+            this.mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            /* The pool has been shut down; late chunks from a transport thread are dropped. */
+        }
+    }
+
+    /*
+     * Stops every parser and waits at most timeoutMillis for running decode passes to finish.
+     * Each pass handles a bounded number of chunks, so the wait is short in practice.
+     * Returns false if threads were still busy and had to be interrupted.
+     */
+    public boolean shutdown(long timeoutMillis) {
+        synchronized (this.mParsers) {
+            for (ParseRunnable parser : this.mParsers) {
+                parser.stop();
+            }
+            this.mParsers.clear();
+        }
+        this.mExecutor.shutdown();
+        try {
+            if (this.mExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.mExecutor.shutdownNow();
+        return false;
+    }
+}
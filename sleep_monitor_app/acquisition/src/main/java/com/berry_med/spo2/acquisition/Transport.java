@@ -0,0 +1,16 @@
+package com.berry_med.spo2.acquisition;
+
+/**
+ * A byte source carrying BerryMed packets, e.g. a Bluetooth link or a USB serial port.
+ * Implementations call back into the listener from their own threads.
+ */
+public interface Transport {
+    /* Starts looking for the device; data and connection changes go to listener from now on. */
+    void open(TransportListener listener);
+
+    /* Drops the current connection, if any, e.g. because another transport took over. */
+    void disconnect();
+
+    /* Stops the transport for good. */
+    void close();
+}
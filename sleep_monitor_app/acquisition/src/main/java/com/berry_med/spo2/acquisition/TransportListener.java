@@ -0,0 +1,10 @@
+package com.berry_med.spo2.acquisition;
+
+public interface TransportListener {
+    void onTransportConnected(Transport transport);
+
+    void onTransportDisconnected(Transport transport);
+
+    /* The data array may be reused by the transport once this returns. */
+    void onTransportData(Transport transport, byte[] data, int off, int len);
+}
@@ -0,0 +1,147 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BerryMedDecoderTest {
+
+    /* Copies every frame handed to it, since the decoder reuses its block. */
+    private static class Collector implements FrameSink {
+        int[] pleth = new int[64];
+        int[] spo2 = new int[64];
+        int[] pr = new int[64];
+        int[] pi = new int[64];
+        boolean[] beat = new boolean[64];
+        int count = 0;
+        int calls = 0;
+
+        public void onFrames(FrameBlock frames) {
+            this.calls++;
+            for (int i = 0; i < frames.count; i++) {
+                this.pleth[this.count] = frames.pleth[i];
+                this.spo2[this.count] = frames.spo2[i];
+                this.pr[this.count] = frames.pr[i];
+                this.pi[this.count] = frames.pi[i];
+                this.beat[this.count] = frames.beat[i];
+                this.count++;
+            }
+        }
+    }
+
+    private static byte[] packet(boolean beat, int pi, int pleth, int pulseRate, int spo2) {
+        return new byte[]{
+                (byte) (0x80 | (beat ? 0x40 : 0) | pi),
+                (byte) pleth,
+                (byte) ((pulseRate & 0x80) >> 1),
+                (byte) (pulseRate & 0x7F),
+                (byte) spo2
+        };
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] out = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, out, pos, part.length);
+            pos += part.length;
+        }
+        return out;
+    }
+
+    @Test
+    public void decodesFields() {
+        BerryMedDecoder decoder = new BerryMedDecoder(8);
+        Collector sink = new Collector();
+        byte[] data = concat(packet(true, 4, 100, 160, 98), packet(false, 15, 0, 255, 127));
+        assertEquals(2, decoder.decode(data, 0, data.length, sink));
+        assertEquals(2, sink.count);
+        assertEquals(100, sink.pleth[0]);
+        assertEquals(160, sink.pr[0]);
+        assertEquals(98, sink.spo2[0]);
+        assertEquals(4, sink.pi[0]);
+        assertTrue(sink.beat[0]);
+        assertEquals(255, sink.pr[1]);
+        assertEquals(127, sink.spo2[1]);
+        assertEquals(15, sink.pi[1]);
+        assertFalse(sink.beat[1]);
+        assertEquals(0, decoder.getResyncCount());
+        assertEquals(0, decoder.getBytesDiscarded());
+    }
+
+    @Test
+    public void discardsGarbageBeforeFirstSync() {
+        BerryMedDecoder decoder = new BerryMedDecoder(8);
+        Collector sink = new Collector();
+        byte[] data = concat(new byte[]{0x01, 0x7F, 0x00}, packet(false, 2, 60, 70, 96));
+        assertEquals(1, decoder.decode(data, 0, data.length, sink));
+        assertEquals(60, sink.pleth[0]);
+        assertEquals(3, decoder.getBytesDiscarded());
+        assertEquals(0, decoder.getResyncCount());
+        assertEquals(0, decoder.getFramesDropped());
+    }
+
+    @Test
+    public void resyncsOnTruncatedPacket() {
+        BerryMedDecoder decoder = new BerryMedDecoder(8);
+        Collector sink = new Collector();
+        byte[] truncated = new byte[]{(byte) 0x82, 55, 0};
+        byte[] data = concat(packet(false, 2, 50, 70, 96), truncated, packet(false, 2, 52, 71, 97));
+        assertEquals(2, decoder.decode(data, 0, data.length, sink));
+        assertArrayEquals(new int[]{50, 52}, Arrays.copyOf(sink.pleth, sink.count));
+        assertEquals(1, decoder.getResyncCount());
+        assertEquals(1, decoder.getFramesDropped());
+        assertEquals(3, decoder.getBytesDiscarded());
+        assertEquals(2, decoder.getFramesDecoded());
+    }
+
+    @Test
+    public void keepsPartialPacketAcrossCalls() {
+        BerryMedDecoder decoder = new BerryMedDecoder(8);
+        Collector sink = new Collector();
+        byte[] data = concat(packet(false, 1, 40, 80, 95), packet(true, 3, 41, 81, 94));
+        for (int i = 0; i < data.length; i++) {
+            decoder.decode(data, i, 1, sink);
+        }
+        assertEquals(2, sink.count);
+        assertEquals(41, sink.pleth[1]);
+        assertEquals(81, sink.pr[1]);
+        assertEquals(0, decoder.getBytesDiscarded());
+        assertEquals(0, decoder.getResyncCount());
+    }
+
+    @Test
+    public void resetDropsPartialPacket() {
+        BerryMedDecoder decoder = new BerryMedDecoder(8);
+        Collector sink = new Collector();
+        byte[] data = concat(packet(false, 1, 40, 80, 95), new byte[]{(byte) 0x81, 40});
+        decoder.decode(data, 0, data.length, sink);
+        decoder.reset();
+        byte[] rest = new byte[]{0, 80, 95};
+        assertEquals(0, decoder.decode(rest, 0, rest.length, sink));
+        assertEquals(1, sink.count);
+        assertEquals(1, decoder.getFramesDropped());
+        assertEquals(2 + 3, decoder.getBytesDiscarded());
+    }
+
+    @Test
+    public void flushesFullBlocks() {
+        BerryMedDecoder decoder = new BerryMedDecoder(2);
+        Collector sink = new Collector();
+        byte[] data = new byte[0];
+        for (int i = 0; i < 5; i++) {
+            data = concat(data, packet(false, 2, i, 70, 96));
+        }
+        assertEquals(5, decoder.decode(data, 0, data.length, sink));
+        assertEquals(3, sink.calls);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, Arrays.copyOf(sink.pleth, sink.count));
+    }
+}
@@ -0,0 +1,166 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ByteRingBufferTest {
+
+    private static byte[] bytes(int first, int length) {
+        byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = (byte) (first + i);
+        }
+        return out;
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(16, new ByteRingBuffer(16).capacity());
+        assertEquals(16, new ByteRingBuffer(9).capacity());
+        assertEquals(2, new ByteRingBuffer(1).capacity());
+    }
+
+    @Test
+    public void wrapsAround() {
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        byte[] dst = new byte[16];
+        for (int round = 0; round < 10; round++) {
+            byte[] chunk = bytes(round * 7, 7);
+            assertTrue(ring.add(chunk, 0, chunk.length, 1000L + round));
+            assertEquals(7, ring.size());
+            assertEquals(7, ring.poll(dst, 0, dst.length));
+            assertArrayEquals(chunk, Arrays.copyOf(dst, 7));
+            assertEquals(1000L + round, ring.getReadChunkNanos());
+            assertEquals(0, ring.size());
+        }
+        assertEquals(0, ring.getOverflowCount());
+    }
+
+    @Test
+    public void pollStopsAtChunkBoundary() {
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        ring.add(bytes(0, 3), 0, 3, 10L);
+        ring.add(bytes(3, 4), 0, 4, 20L);
+        byte[] dst = new byte[16];
+        assertEquals(3, ring.poll(dst, 0, dst.length));
+        assertEquals(10L, ring.getReadChunkNanos());
+        assertEquals(2, ring.poll(dst, 3, 2));
+        assertEquals(20L, ring.getReadChunkNanos());
+        assertEquals(2, ring.poll(dst, 5, dst.length - 5));
+        assertEquals(20L, ring.getReadChunkNanos());
+        assertArrayEquals(bytes(0, 7), Arrays.copyOf(dst, 7));
+        assertEquals(0, ring.poll(dst, 0, dst.length));
+    }
+
+    @Test
+    public void dropsChunkThatDoesNotFit() {
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        assertTrue(ring.add(bytes(0, 10), 0, 10, 1L));
+        assertFalse(ring.add(bytes(10, 7), 0, 7, 2L));
+        assertFalse(ring.add(bytes(10, 20), 0, 20, 3L));
+        assertEquals(2, ring.getOverflowCount());
+        assertEquals(27, ring.getDroppedBytes());
+        assertEquals(10, ring.size());
+        assertTrue(ring.add(bytes(10, 6), 0, 6, 4L));
+        byte[] dst = new byte[16];
+        assertEquals(10, ring.poll(dst, 0, dst.length));
+        assertEquals(6, ring.poll(dst, 10, 6));
+        assertArrayEquals(bytes(0, 16), dst);
+    }
+
+    @Test
+    public void dropsChunkWhenChunkTableIsFull() {
+        /* A 16 byte ring tracks 4 chunks. */
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.add(bytes(i, 1), 0, 1, i));
+        }
+        assertFalse(ring.add(bytes(4, 1), 0, 1, 4L));
+        assertEquals(1, ring.getOverflowCount());
+        assertEquals(1, ring.getDroppedBytes());
+        byte[] dst = new byte[4];
+        assertEquals(1, ring.poll(dst, 0, 4));
+        assertTrue(ring.add(bytes(4, 1), 0, 1, 4L));
+    }
+
+    @Test
+    public void clearSkipsPendingChunks() {
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        ring.add(bytes(0, 5), 0, 5, 1L);
+        ring.add(bytes(5, 5), 0, 5, 2L);
+        byte[] dst = new byte[16];
+        assertEquals(2, ring.poll(dst, 0, 2));
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.poll(dst, 0, dst.length));
+        assertTrue(ring.add(bytes(20, 4), 0, 4, 3L));
+        assertEquals(4, ring.poll(dst, 0, dst.length));
+        assertEquals(3L, ring.getReadChunkNanos());
+        assertArrayEquals(bytes(20, 4), Arrays.copyOf(dst, 4));
+    }
+
+    @Test
+    public void clearToKeepsLaterChunks() {
+        ByteRingBuffer ring = new ByteRingBuffer(16);
+        ring.add(bytes(0, 5), 0, 5, 1L);
+        byte[] dst = new byte[16];
+        assertEquals(2, ring.poll(dst, 0, 2));
+        ring.add(bytes(5, 3), 0, 3, 2L);
+        long position = ring.getWritePosition();
+        ring.add(bytes(8, 4), 0, 4, 3L);
+        ring.clearTo(position);
+        assertEquals(4, ring.size());
+        assertEquals(4, ring.poll(dst, 0, dst.length));
+        assertEquals(3L, ring.getReadChunkNanos());
+        assertArrayEquals(bytes(8, 4), Arrays.copyOf(dst, 4));
+        /* Clearing to a position already read is a no-op. */
+        ring.clearTo(position);
+        assertEquals(0, ring.size());
+        assertTrue(ring.add(bytes(12, 2), 0, 2, 4L));
+        assertEquals(2, ring.poll(dst, 0, dst.length));
+        assertEquals(4L, ring.getReadChunkNanos());
+    }
+
+    @Test
+    public void concurrentProducerLosesNothingItCounted() throws Exception {
+        final ByteRingBuffer ring = new ByteRingBuffer(64);
+        final int chunks = 200000;
+        final long[] accepted = new long[1];
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                byte[] chunk = new byte[3];
+                for (int i = 0; i < chunks; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        chunk[j] = (byte) (i + j);
+                    }
+                    if (ring.add(chunk, 0, 3, i)) {
+                        accepted[0]++;
+                    }
+                }
+            }
+        });
+        producer.start();
+        byte[] dst = new byte[3];
+        long received = 0;
+        while (producer.isAlive() || ring.size() > 0) {
+            int len = ring.poll(dst, 0, 3);
+            if (len == 0) {
+                continue;
+            }
+            assertEquals(3, len);
+            int i = (int) ring.getReadChunkNanos();
+            assertEquals((byte) i, dst[0]);
+            assertEquals((byte) (i + 2), dst[2]);
+            received++;
+        }
+        producer.join();
+        assertEquals(accepted[0], received);
+        assertEquals(chunks - received, ring.getOverflowCount());
+        assertEquals(3 * ring.getOverflowCount(), ring.getDroppedBytes());
+    }
+}
@@ -0,0 +1,40 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.Test;
+
+public class CaptureReplayTest {
+
+    @Test
+    public void replaysCaptureInSmallReads() throws Exception {
+        byte[] capture = new byte[]{
+                (byte) 0xC3, 50, 0x40, 20, 97,
+                0x11, 0x22,
+                (byte) 0x82, 51, 0, 72, 96
+        };
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        BerryMedDecoder decoder = new CaptureReplay(new PrintStream(csv, true, "UTF-8"))
+                .replay(new ByteArrayInputStream(capture), 3);
+        String[] lines = csv.toString("UTF-8").split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("frame,pleth,spo2,pulse_rate,pi,beat", lines[0]);
+        assertEquals("0,50,97,148,3,1", lines[1]);
+        assertEquals("1,51,96,72,2,0", lines[2]);
+        assertEquals(2, decoder.getFramesDecoded());
+        assertEquals(2, decoder.getBytesDiscarded());
+    }
+
+    @Test
+    public void countsTrailingPartialPacketAsDropped() throws Exception {
+        byte[] capture = new byte[]{(byte) 0x80, 50, 0, 60, 95, (byte) 0x80, 50};
+        BerryMedDecoder decoder = new CaptureReplay(new PrintStream(new ByteArrayOutputStream()))
+                .replay(new ByteArrayInputStream(capture), 64);
+        assertEquals(1, decoder.getFramesDecoded());
+        assertEquals(1, decoder.getFramesDropped());
+        assertEquals(2, decoder.getBytesDiscarded());
+    }
+}
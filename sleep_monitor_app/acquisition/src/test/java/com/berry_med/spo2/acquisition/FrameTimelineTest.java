@@ -0,0 +1,127 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class FrameTimelineTest {
+    private static final long MS = 1000000L;
+    private static final long PERIOD = 10 * MS;
+
+    private static FrameBlock block(int count) {
+        FrameBlock block = new FrameBlock(count);
+        block.count = count;
+        return block;
+    }
+
+    private static void assertStamped(FrameBlock block, long firstIndex, long firstNanos) {
+        for (int i = 0; i < block.count; i++) {
+            assertEquals(firstIndex + i, block.sampleIndex[i]);
+            assertEquals(firstNanos + (i * PERIOD), block.timestampNanos[i]);
+        }
+    }
+
+    @Test
+    public void placesFramesAtNominalRate() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(5);
+        /* The last frame of the first chunk is taken to arrive without delay. */
+        timeline.stamp(block, 50 * MS);
+        assertStamped(block, 0, 10 * MS);
+        timeline.stamp(block, 100 * MS);
+        assertStamped(block, 5, 60 * MS);
+        assertEquals(0, timeline.getGapCount());
+        assertEquals(0, timeline.getJitterNanos());
+    }
+
+    @Test
+    public void latencyBelowGapThresholdKeepsIndices() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(5);
+        timeline.stamp(block, 50 * MS);
+        timeline.stamp(block, 130 * MS);
+        assertEquals(5, block.sampleIndex[0]);
+        assertEquals(0, timeline.getGapCount());
+        assertEquals(0, timeline.getMissingSamples());
+        /* 30 ms of lag: the origin creeps forward by lag >> 10 and the jitter follows by 1/16. */
+        assertEquals(60 * MS + ((30 * MS) >> 10), block.timestampNanos[0]);
+        assertEquals((30 * MS) >> 4, timeline.getJitterNanos());
+    }
+
+    @Test
+    public void earlierArrivalNeverStampsBackwards() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(5);
+        timeline.stamp(block, 80 * MS);
+        assertStamped(block, 0, 40 * MS);
+        /* Frames 5..9 were expected to end at 130 ms but arrived at 110 ms: the origin moves back 20 ms. */
+        timeline.stamp(block, 110 * MS);
+        assertStamped(block, 5, 90 * MS);
+        assertEquals(0, timeline.getGapCount());
+        /* The earlier origin applies after the next gap: frames 60..64 end at 20 + 640 ms. */
+        timeline.stamp(block, 660 * MS);
+        assertStamped(block, 60, 620 * MS);
+        assertEquals(1, timeline.getGapCount());
+    }
+
+    @Test
+    public void timestampsIncreaseAcrossBlocks() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(4);
+        Random random = new Random(7);
+        long last = Long.MIN_VALUE;
+        for (int n = 0; n < 2000; n++) {
+            /* 40 ms per chunk with up to 60 ms of latency, so some chunks arrive early. */
+            long arrival = (n * 40 * MS) + (random.nextInt(60) * MS);
+            timeline.stamp(block, arrival);
+            for (int i = 0; i < block.count; i++) {
+                assertTrue("block " + n + " frame " + i, block.timestampNanos[i] - PERIOD >= last);
+                last = block.timestampNanos[i];
+            }
+        }
+        timeline.reset();
+        timeline.stamp(block, 0);
+        assertTrue(block.timestampNanos[0] - PERIOD >= last);
+    }
+
+    @Test
+    public void skipsMissingFramesAcrossGap() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(5);
+        timeline.stamp(block, 50 * MS);
+        timeline.stamp(block, 100 * MS);
+        /* Frames 10..14 would have ended at 150 ms; 500 ms later means 50 frames were lost. */
+        timeline.stamp(block, 650 * MS);
+        assertStamped(block, 60, 610 * MS);
+        assertEquals(1, timeline.getGapCount());
+        assertEquals(50, timeline.getMissingSamples());
+        timeline.stamp(block, 700 * MS);
+        assertStamped(block, 65, 660 * MS);
+        assertEquals(1, timeline.getGapCount());
+    }
+
+    @Test
+    public void roundsPartialGapToWholeFrames() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(1);
+        timeline.stamp(block, 0);
+        timeline.stamp(block, 10 * MS);
+        /* Frame 2 expected at 20 ms, arrives at 224 ms: 20.4 periods late, so 20 are missing. */
+        timeline.stamp(block, 224 * MS);
+        assertEquals(22, block.sampleIndex[0]);
+        assertEquals(20, timeline.getMissingSamples());
+    }
+
+    @Test
+    public void resetRestartsIndices() {
+        FrameTimeline timeline = new FrameTimeline(PERIOD);
+        FrameBlock block = block(5);
+        timeline.stamp(block, 50 * MS);
+        timeline.reset();
+        timeline.stamp(block, 5000 * MS);
+        assertStamped(block, 0, 4960 * MS);
+        assertEquals(0, timeline.getGapCount());
+    }
+}
@@ -0,0 +1,55 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OxiParamsSeqlockTest {
+
+    @Test
+    public void readReturnsLastPublish() {
+        OxiParamsSeqlock lock = new OxiParamsSeqlock();
+        lock.publish(97, 62, 5, 10L, 1234L);
+        ParseRunnable.OxiParams params = lock.read(new ParseRunnable.OxiParams());
+        assertEquals(97, params.getSpo2());
+        assertEquals(62, params.getPulseRate());
+        assertEquals(5, params.getPi());
+        assertEquals(10L, params.getFrameCount());
+        assertEquals(1234L, params.getTimestampNanos());
+        assertEquals(10L, lock.getFrameCount());
+    }
+
+    @Test
+    public void readersNeverSeeTornSnapshot() throws Exception {
+        final OxiParamsSeqlock lock = new OxiParamsSeqlock();
+        final long publishes = 2000000L;
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                /* Every field is derived from n, so a snapshot mixing two publishes is detectable. */
+                for (long n = 1; n <= publishes; n++) {
+                    int v = (int) n;
+                    lock.publish(v & 127, (v * 3) & 255, v & 15, n, n * 10000000L);
+                }
+            }
+        });
+        writer.start();
+        ParseRunnable.OxiParams params = new ParseRunnable.OxiParams();
+        long reads = 0;
+        long last = 0;
+        while (writer.isAlive() || reads == 0) {
+            lock.read(params);
+            long n = params.getFrameCount();
+            int v = (int) n;
+            assertTrue(n >= last);
+            assertEquals(v & 127, params.getSpo2());
+            assertEquals((v * 3) & 255, params.getPulseRate());
+            assertEquals(v & 15, params.getPi());
+            assertEquals(n * 10000000L, params.getTimestampNanos());
+            last = n;
+            reads++;
+        }
+        writer.join();
+        assertEquals(publishes, lock.read(params).getFrameCount());
+    }
+}
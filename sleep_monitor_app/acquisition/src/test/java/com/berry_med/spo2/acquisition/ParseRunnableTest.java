@@ -0,0 +1,209 @@
+package com.berry_med.spo2.acquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayDeque;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseRunnableTest {
+
+    /* Queues scheduled passes so the test runs them one at a time on its own thread. */
+    private static class ManualPool extends ParserPool {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        int mExecuted = 0;
+
+        ManualPool() {
+            super(1);
+        }
+
+        @Override
+        void execute(Runnable task) {
+            this.mTasks.add(task);
+            this.mExecuted++;
+        }
+
+        boolean runNext() {
+            Runnable task = this.mTasks.poll();
+            if (task == null) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+    }
+
+    private static class FakeClock implements MonotonicClock {
+        long mNanos = 0;
+
+        public long nanoTime() {
+            return this.mNanos;
+        }
+    }
+
+    private static class Listener implements ParseRunnable.OnDataChangeListener {
+        int mParamsChanged = 0;
+        int mWaves = 0;
+        int mBeats = 0;
+        boolean mThrowOnce = false;
+
+        public void onPulseWaveDetected() {
+            this.mBeats++;
+        }
+
+        public void onSpO2ParamsChanged() {
+            this.mParamsChanged++;
+            if (this.mThrowOnce) {
+                this.mThrowOnce = false;
+                throw new IllegalStateException("listener failure");
+            }
+        }
+
+        public void onSpO2WaveChanged(int i) {
+            this.mWaves++;
+        }
+    }
+
+    private ManualPool mPool;
+    private FakeClock mClock;
+    private Listener mListener;
+    private ParseRunnable mParser;
+
+    @Before
+    public void setUp() {
+        this.mPool = new ManualPool();
+        this.mClock = new FakeClock();
+        this.mListener = new Listener();
+        this.mParser = new ParseRunnable(this.mListener, this.mPool, this.mClock);
+    }
+
+    @After
+    public void tearDown() {
+        this.mPool.shutdown(1000);
+    }
+
+    private static byte[] packet(int pleth, int spo2) {
+        return new byte[]{(byte) 0xC2, (byte) pleth, 0, 70, (byte) spo2};
+    }
+
+    @Test
+    public void schedulesOncePerPendingPass() {
+        for (int i = 0; i < 10; i++) {
+            this.mParser.add(packet(i, 97));
+        }
+        /* Every add after the first sees mScheduled already set. */
+        assertEquals(1, this.mPool.mExecuted);
+        assertTrue(this.mPool.runNext());
+        assertEquals(10, this.mParser.getFramesDecoded());
+        assertEquals(10, this.mListener.mWaves);
+        assertEquals(10, this.mListener.mBeats);
+        assertEquals(1, this.mListener.mParamsChanged);
+        assertEquals(0, this.mPool.mTasks.size());
+        /* The pass cleared the flag, so the next chunk schedules again. */
+        this.mParser.add(packet(10, 97));
+        assertEquals(2, this.mPool.mExecuted);
+    }
+
+    @Test
+    public void reschedulesAfterMaxReadsPerRun() {
+        /* 100 chunks of one frame each; one pass reads at most 64 of them. */
+        for (int i = 0; i < 100; i++) {
+            this.mClock.mNanos = i * ParseRunnable.SAMPLE_PERIOD_NANOS;
+            this.mParser.add(packet(i & 127, 97));
+        }
+        assertEquals(1, this.mPool.mExecuted);
+        assertTrue(this.mPool.runNext());
+        assertEquals(64, this.mParser.getFramesDecoded());
+        assertEquals(2, this.mPool.mExecuted);
+        assertEquals(1, this.mPool.mTasks.size());
+        /* Chunks added while the continuation is queued do not schedule a second pass. */
+        this.mParser.add(packet(100, 97));
+        assertEquals(2, this.mPool.mExecuted);
+        assertTrue(this.mPool.runNext());
+        assertEquals(101, this.mParser.getFramesDecoded());
+        assertEquals(2, this.mPool.mExecuted);
+        assertEquals(0, this.mPool.mTasks.size());
+        assertEquals(0, this.mParser.getGapCount());
+        ParseRunnable.OxiParams params = this.mParser.readOxiParams(new ParseRunnable.OxiParams());
+        assertEquals(101, params.getFrameCount());
+        assertEquals(97, params.getSpo2());
+    }
+
+    @Test
+    public void stoppedParserIgnoresChunksAndDoesNotReschedule() {
+        for (int i = 0; i < 100; i++) {
+            this.mParser.add(packet(i, 97));
+        }
+        this.mParser.stop();
+        this.mParser.add(packet(0, 97));
+        assertTrue(this.mPool.runNext());
+        assertEquals(0, this.mParser.getFramesDecoded());
+        assertEquals(0, this.mPool.mTasks.size());
+        this.mParser.start();
+        assertEquals(2, this.mPool.mExecuted);
+        while (this.mPool.runNext()) {
+        }
+        assertEquals(100, this.mParser.getFramesDecoded());
+    }
+
+    @Test
+    public void resetDropsBufferedBytesAndPartialPacket() {
+        this.mParser.add(new byte[]{(byte) 0xC2, 50, 0});
+        assertTrue(this.mPool.runNext());
+        this.mParser.add(packet(1, 97));
+        this.mParser.reset();
+        assertEquals(1, this.mPool.mTasks.size());
+        assertTrue(this.mPool.runNext());
+        assertEquals(0, this.mParser.getFramesDecoded());
+        assertEquals(1, this.mParser.getFramesDropped());
+        this.mParser.add(packet(2, 96));
+        assertTrue(this.mPool.runNext());
+        assertEquals(1, this.mParser.getFramesDecoded());
+    }
+
+    @Test
+    public void resetKeepsBytesAddedBeforeThePass() {
+        this.mParser.add(packet(1, 97));
+        this.mParser.reset();
+        /* The new connection delivers a packet before the reset pass runs. */
+        this.mParser.add(packet(2, 96));
+        assertTrue(this.mPool.runNext());
+        assertEquals(1, this.mParser.getFramesDecoded());
+        assertEquals(96, this.mParser.readOxiParams(new ParseRunnable.OxiParams()).getSpo2());
+        assertEquals(0, this.mPool.mTasks.size());
+    }
+
+    @Test
+    public void decodingResumesAfterListenerThrows() {
+        this.mListener.mThrowOnce = true;
+        this.mParser.add(packet(1, 97));
+        try {
+            this.mPool.runNext();
+            fail("The listener exception should reach the pool");
+        } catch (IllegalStateException expected) {
+        }
+        long decoded = this.mParser.getFramesDecoded();
+        for (int i = 0; i < 20; i++) {
+            this.mParser.add(packet(i, 96));
+        }
+        assertEquals(2, this.mPool.mExecuted);
+        while (this.mPool.runNext()) {
+        }
+        assertEquals(decoded + 20, this.mParser.getFramesDecoded());
+        assertEquals(96, this.mParser.readOxiParams(new ParseRunnable.OxiParams()).getSpo2());
+    }
+
+    @Test
+    public void countsOverflowWhenParserFallsBehind() {
+        byte[] chunk = new byte[1000];
+        for (int i = 0; i < 5; i++) {
+            this.mParser.add(chunk);
+        }
+        /* The ring holds 4096 bytes, so the fifth chunk is dropped. */
+        assertEquals(1, this.mParser.getOverflowCount());
+        assertEquals(1000, this.mParser.getDroppedBytes());
+    }
+}
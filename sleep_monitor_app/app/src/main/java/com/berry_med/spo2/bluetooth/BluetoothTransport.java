@@ -0,0 +1,100 @@
+package com.berry_med.spo2.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+import com.berry_med.spo2.Adapter.BluetoothDeviceAdapter;
+import com.berry_med.spo2.acquisition.Transport;
+import com.berry_med.spo2.acquisition.TransportListener;
+import com.berry_med.spo2.bluetooth.BluetoothUtils.BTConnectListener;
+import java.util.ArrayList;
+
+/* Connects to the first BerryMed oximeter found and keeps scanning until one is connected. */
+public class BluetoothTransport implements Transport, BTConnectListener {
+    public static final String TAG = BluetoothTransport.class.getSimpleName();
+    public ArrayList<BluetoothDevice> arrayBluetoothDevices = new ArrayList<>();
+    public BluetoothDevice connectedDevice = null;
+    public BluetoothDeviceAdapter mBluetoothDeviceAdapter;
+    public BluetoothUtils mBtUtils = BluetoothUtils.getDefaultBluetoothUtils();
+    private Context mContext;
+    private TransportListener mListener;
+    private boolean isOpen = false;
+
+    public BluetoothTransport(Context context) {
+        this.mContext = context;
+        this.mBluetoothDeviceAdapter = new BluetoothDeviceAdapter(this.mContext, this.arrayBluetoothDevices, this.mBtUtils.mRssiMap);
+    }
+
+    public void open(TransportListener listener) {
+        this.mListener = listener;
+        this.isOpen = true;
+        this.mBtUtils.setConnectListener(this);
+        this.mBtUtils.registerBroadcastReceiver(this.mContext);
+        scan();
+    }
+
+    public void disconnect() {
+        this.mBtUtils.disconnect();
+    }
+
+    public void close() {
+        if (!this.isOpen) {
+            return;
+        }
+        this.isOpen = false;
+        this.mBtUtils.unregisterBroadcastReceiver(this.mContext);
+        this.mBtUtils.unbindService(this.mContext);
+    }
+
+    public boolean isConnected() {
+        return this.mBtUtils.mBLEService != null && this.mBtUtils.mBLEService.mConnectionState > 0;
+    }
+
+    private void scan() {
+        this.arrayBluetoothDevices.clear();
+        this.mBluetoothDeviceAdapter.notifyDataSetChanged();
+        this.mBtUtils.startScan(true);
+    }
+
+    public void onFoundDevice(BluetoothDevice device) {
+        if (device.getName() == null) return;
+        if (device.getName().equals(Const.BT_NAME)) {
+            if (!this.arrayBluetoothDevices.contains(device) && arrayBluetoothDevices.isEmpty()) {
+                Log.i(TAG, "Bluetooth device: " + device.getName() + "---" + device.getAddress());
+                this.arrayBluetoothDevices.add(device);
+                this.mBluetoothDeviceAdapter.notifyDataSetChanged();
+                Log.i("Bluetooth", "Bluetooth device: connecting...");
+                connectedDevice = arrayBluetoothDevices.get(0);
+                mBtUtils.connect(this.mContext, connectedDevice);
+            }
+        }
+    }
+
+    public void onStopScan() {
+        Log.i(TAG, "Stop Scan..." + this.arrayBluetoothDevices.size());
+        // Keep scanning until device is found
+        if (this.isOpen && !isConnected())
+            mBtUtils.startScan(true);
+    }
+
+    public void onStartScan() {
+        Log.i(TAG, "Start Scan..." + this.arrayBluetoothDevices.size());
+    }
+
+    public void onConnected() {
+        Log.i("Bluetooth", "Bluetooth device: connected");
+        this.mListener.onTransportConnected(this);
+    }
+
+    public void onDisconnected() {
+        Log.d("Bluetooth", "Disconnected");
+        this.mListener.onTransportDisconnected(this);
+        // Reconnect
+        if (this.isOpen)
+            scan();
+    }
+
+    public void onReceiveData(byte[] dat) {
+        this.mListener.onTransportData(this, dat, 0, dat.length);
+    }
+}
@@ -0,0 +1,51 @@
+package com.berry_med.spo2.usbserial;
+
+import android.content.Context;
+import android.util.Log;
+import com.berry_med.spo2.acquisition.Transport;
+import com.berry_med.spo2.acquisition.TransportListener;
+import com.berry_med.spo2.usbserial.USBCommManager.USBCommListener;
+
+/* Oximeter attached through a USB serial adapter. */
+public class UsbTransport implements Transport, USBCommListener {
+    public static final String TAG = UsbTransport.class.getSimpleName();
+    private Context mContext;
+    private volatile TransportListener mListener;
+
+    public UsbTransport(Context context) {
+        this.mContext = context;
+    }
+
+    public void open(TransportListener listener) {
+        this.mListener = listener;
+        USBCommManager.getUSBManager(this.mContext).setListener(this);
+    }
+
+    /* A plugged-in cable cannot be disconnected from here. */
+    public void disconnect() {}
+
+    /* USBCommManager keeps calling its listener from its own threads, so just stop forwarding. */
+    public void close() {
+        this.mListener = null;
+    }
+
+    public void onUSBStateChanged(boolean isPlugged) {
+        Log.i(TAG, "onUSBStateChanged: ----------" + isPlugged);
+        TransportListener listener = this.mListener;
+        if (listener == null) {
+            return;
+        }
+        if (isPlugged) {
+            listener.onTransportConnected(this);
+        } else {
+            listener.onTransportDisconnected(this);
+        }
+    }
+
+    public void onReceiveData(byte[] dat) {
+        TransportListener listener = this.mListener;
+        if (listener != null) {
+            listener.onTransportData(this, dat, 0, dat.length);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.positionmonitor
+
+import com.berry_med.spo2.acquisition.DesaturationDetector
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+// Streaming apnea classifier relating respiratory effort (stomach movement) to airflow (thermistor).
+//
+// Both channels go through sliding windows of `windowSeconds`; their standard deviations are the
+// breathing amplitudes and their windowed correlation tells how well effort and airflow move
+// together. Slow running baselines of both amplitudes are kept outside of events.
+// An event starts when the airflow amplitude falls below `cessationRatio` of its baseline and ends
+// when it is back above `recoveryRatio`. Events shorter than `minEventSeconds` are ignored. It is
+// obstructive when effort stayed above `effortRatio` of its baseline for most of the event, and
+// central when effort stopped as well.
+//
+// Desaturations arrive from the oximeter parser thread, only once they have recovered. An event is
+// linked to the desaturation whose nadir is nearest its end and at most 60 s after it. Such a
+// desaturation can still be running up to DesaturationDetector.MAX_EVENT_SECONDS later, so each
+// finished event is held for the link window plus that time before it is emitted. Memory is
+// bounded: a fixed number of pending events and recent desaturations.
+class ApneaClassifier(
+    sampleRateHz: Float,
+    private val windowSeconds: Float = 10f
+) : DesaturationDetector.OnDesaturationListener {
+    interface Listener {
+        // desaturationNadirNanos is 0 and drop 0 when no desaturation followed the event.
+        fun onApnea(startNanos: Long, endNanos: Long, type: Int, correlation: Float,
+                    desaturationNadirNanos: Long, desaturationDrop: Int)
+    }
+
+    companion object {
+        const val OBSTRUCTIVE = 1
+        const val CENTRAL = 2
+    }
+
+    var listener: Listener? = null
+
+    var obstructiveCount = 0
+        private set
+    var centralCount = 0
+        private set
+    var linkedCount = 0
+        private set
+    // Windowed effort/airflow correlation of the latest sample.
+    var correlation = 0f
+        private set
+
+    private val cessationRatio = 0.2f
+    private val recoveryRatio = 0.5f
+    private val effortRatio = 0.4f
+    private val minEventNanos = 10000000000L
+    private val warmupNanos = 60000000000L
+    private val linkNanos = 60000000000L
+    // A few seconds more for the one-second SpO2 averaging and the parser thread running behind.
+    private val holdNanos = linkNanos + (DesaturationDetector.MAX_EVENT_SECONDS + 5) * 1000000000L
+    private val windowNanos = (windowSeconds * 1.0e9f).toLong()
+    private val baselineFactor = 1f / (120f * sampleRateHz)
+
+    private val windowSize = (windowSeconds * sampleRateHz).toInt()
+    private val effort = SlidingWindow(windowSize)
+    private val airflow = SlidingWindow(windowSize)
+    private val product = SlidingWindow(windowSize)
+
+    private var firstNanos = 0L
+    private var effortBaseline = 0f
+    private var airflowBaseline = 0f
+
+    private var inEvent = false
+    private var eventStartNanos = 0L
+    private var eventSamples = 0
+    private var eventEffortSamples = 0
+    private var eventCorrelationSum = 0f
+
+    // Finished events waiting for their desaturation.
+    private val pendingCapacity = 32
+    private val pendingStart = LongArray(pendingCapacity)
+    private val pendingEnd = LongArray(pendingCapacity)
+    private val pendingType = IntArray(pendingCapacity)
+    private val pendingCorrelation = FloatArray(pendingCapacity)
+    private var pendingFirst = 0
+    private var pendingSize = 0
+
+    // Recent desaturations, written on the parser thread.
+    private val desaturationCapacity = 16
+    private val desaturationNadir = LongArray(desaturationCapacity)
+    private val desaturationDrop = IntArray(desaturationCapacity)
+    private var desaturationNext = 0
+    private var desaturationSize = 0
+
+    fun process(timestampNanos: Long, effortValue: Float, airflowValue: Float) {
+        effort.add(effortValue)
+        airflow.add(airflowValue)
+        product.add(effortValue * airflowValue)
+        if (firstNanos == 0L)
+            firstNanos = timestampNanos
+        flushPending(timestampNanos)
+        if (!effort.isFull())
+            return
+
+        val effortAmplitude = sqrt(effort.variance())
+        val airflowAmplitude = sqrt(airflow.variance())
+        val amplitudes = effortAmplitude * airflowAmplitude
+        correlation = if (amplitudes > 0f)
+            (product.mean() - effort.mean() * airflow.mean()) / amplitudes else 0f
+
+        if (inEvent) {
+            eventSamples++
+            if (effortAmplitude >= effortRatio * effortBaseline)
+                eventEffortSamples++
+            eventCorrelationSum += correlation
+            if (airflowAmplitude >= recoveryRatio * airflowBaseline)
+                endEvent(timestampNanos)
+            return
+        }
+        if (airflowBaseline == 0f) {
+            effortBaseline = effortAmplitude
+            airflowBaseline = airflowAmplitude
+            return
+        }
+        if (timestampNanos - firstNanos >= warmupNanos && airflowAmplitude < cessationRatio * airflowBaseline) {
+            // The window only drops this low once it is mostly flat, so the cessation began about a window ago.
+            inEvent = true
+            eventStartNanos = timestampNanos - windowNanos
+            eventSamples = 0
+            eventEffortSamples = 0
+            eventCorrelationSum = 0f
+            return
+        }
+        effortBaseline += (effortAmplitude - effortBaseline) * baselineFactor
+        airflowBaseline += (airflowAmplitude - airflowBaseline) * baselineFactor
+    }
+
+    private fun endEvent(endNanos: Long) {
+        inEvent = false
+        if (endNanos - eventStartNanos < minEventNanos || eventSamples == 0)
+            return
+        val type = if (eventEffortSamples * 2 > eventSamples) OBSTRUCTIVE else CENTRAL
+        if (type == OBSTRUCTIVE) obstructiveCount++ else centralCount++
+        if (pendingSize == pendingCapacity)
+            emit(pendingFirst, 0L, 0)
+        val slot = (pendingFirst + pendingSize) % pendingCapacity
+        pendingStart[slot] = eventStartNanos
+        pendingEnd[slot] = endNanos
+        pendingType[slot] = type
+        pendingCorrelation[slot] = eventCorrelationSum / eventSamples
+        pendingSize++
+    }
+
+    private fun flushPending(nowNanos: Long) {
+        while (pendingSize > 0 && nowNanos - pendingEnd[pendingFirst] >= holdNanos) {
+            var nadirNanos = 0L
+            var drop = 0
+            synchronized(this) {
+                var bestDistance = Long.MAX_VALUE
+                for (idx in 0 until desaturationSize) {
+                    val nadir = desaturationNadir[idx]
+                    if (nadir < pendingStart[pendingFirst] || nadir > pendingEnd[pendingFirst] + linkNanos)
+                        continue
+                    val distance = abs(nadir - pendingEnd[pendingFirst])
+                    if (distance < bestDistance) {
+                        bestDistance = distance
+                        nadirNanos = nadir
+                        drop = desaturationDrop[idx]
+                    }
+                }
+            }
+            if (nadirNanos != 0L)
+                linkedCount++
+            emit(pendingFirst, nadirNanos, drop)
+        }
+    }
+
+    private fun emit(slot: Int, nadirNanos: Long, drop: Int) {
+        listener?.onApnea(pendingStart[slot], pendingEnd[slot], pendingType[slot], pendingCorrelation[slot], nadirNanos, drop)
+        pendingFirst = (pendingFirst + 1) % pendingCapacity
+        pendingSize--
+    }
+
+    // Called on the parser thread.
+    @Synchronized
+    override fun onDesaturation(startNanos: Long, nadirNanos: Long, endNanos: Long, baseline: Int, nadir: Int) {
+        desaturationNadir[desaturationNext] = nadirNanos
+        desaturationDrop[desaturationNext] = baseline - nadir
+        desaturationNext = (desaturationNext + 1) % desaturationCapacity
+        if (desaturationSize < desaturationCapacity)
+            desaturationSize++
+    }
+}
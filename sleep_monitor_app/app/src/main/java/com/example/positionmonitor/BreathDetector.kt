@@ -0,0 +1,94 @@
+package com.example.positionmonitor
+
+import kotlin.math.abs
+
+// Streaming breath detector for the stomach signal with O(1) work per sample.
+//
+// The signal is centred on a slow running baseline and compared against a threshold that adapts to
+// the running breathing amplitude. One breath is counted per full cycle: the signal has to fall
+// below -threshold before the next rise above +threshold counts, so noise around zero cannot
+// produce extra breaths. The rate is the mean of the last few breath intervals.
+class BreathDetector(private val intervalCount: Int = 8) {
+    interface Listener {
+        fun onBreath(timestampNanos: Long, intervalSeconds: Float, amplitude: Float)
+    }
+
+    var listener: Listener? = null
+
+    // Breaths per minute; 0 until enough breaths were seen or when breathing stopped being detected.
+    var rate = 0f
+        private set
+    var breathCount = 0L
+        private set
+
+    private val baselineFactor = 0.02f
+    private val amplitudeFactor = 0.05f
+    private val thresholdFactor = 0.3f
+    private val minIntervalNanos = 1500000000L
+    private val maxIntervalNanos = 20000000000L
+
+    private var started = false
+    private var baseline = 0f
+    private var amplitude = 0f
+    private var armed = false
+    private var peak = 0f
+    private var lastBreathNanos = 0L
+
+    private val intervals = FloatArray(intervalCount)
+    private var intervalNext = 0
+    private var intervalSize = 0
+    private var intervalSum = 0f
+
+    fun process(timestampNanos: Long, value: Float) {
+        if (!started) {
+            started = true
+            baseline = value
+        }
+        baseline += (value - baseline) * baselineFactor
+        val centred = value - baseline
+        amplitude += (abs(centred) - amplitude) * amplitudeFactor
+        val threshold = amplitude * thresholdFactor
+
+        if (centred < -threshold) {
+            armed = true
+            peak = 0f
+        } else if (armed) {
+            if (centred > peak)
+                peak = centred
+            if (centred > threshold) {
+                armed = false
+                onBreath(timestampNanos)
+            }
+        }
+        if (lastBreathNanos != 0L && timestampNanos - lastBreathNanos > maxIntervalNanos)
+            clearIntervals()
+    }
+
+    private fun onBreath(timestampNanos: Long) {
+        val interval = timestampNanos - lastBreathNanos
+        if (lastBreathNanos != 0L && interval < minIntervalNanos)
+            return
+        breathCount++
+        if (lastBreathNanos != 0L && interval <= maxIntervalNanos) {
+            val seconds = interval / 1.0e9f
+            if (intervalSize == intervalCount)
+                intervalSum -= intervals[intervalNext]
+            else
+                intervalSize++
+            intervals[intervalNext] = seconds
+            intervalSum += seconds
+            intervalNext = (intervalNext + 1) % intervalCount
+            rate = 60f * intervalSize / intervalSum
+            listener?.onBreath(timestampNanos, seconds, peak)
+        }
+        lastBreathNanos = timestampNanos
+    }
+
+    private fun clearIntervals() {
+        intervalSize = 0
+        intervalNext = 0
+        intervalSum = 0f
+        rate = 0f
+        lastBreathNanos = 0L
+    }
+}
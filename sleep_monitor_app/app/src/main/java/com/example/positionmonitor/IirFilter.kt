@@ -0,0 +1,113 @@
+package com.example.positionmonitor
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.tan
+
+// Second-order IIR section in transposed direct form II, normalized so that a0 = 1.
+// The state lives in the object, so samples can be pushed one at a time across sensor events.
+class Biquad(private val b0: Double, private val b1: Double, private val b2: Double,
+             private val a1: Double, private val a2: Double) {
+    private var z1 = 0.0
+    private var z2 = 0.0
+
+    fun process(x: Double): Double {
+        val y = b0 * x + z1
+        z1 = b1 * x - a1 * y + z2
+        z2 = b2 * x - a2 * y
+        return y
+    }
+
+    // Gain for a constant input.
+    fun dcGain(): Double {
+        return (b0 + b1 + b2) / (1.0 + a1 + a2)
+    }
+
+    // Puts the section in the state it would settle to after a long constant input x, like
+    // scipy's lfilter_zi(b, a) * x. Avoids the start-up transient. Returns the settled output.
+    fun settle(x: Double): Double {
+        val y = dcGain() * x
+        z2 = b2 * x - a2 * y
+        z1 = b1 * x - a1 * y + z2
+        return y
+    }
+}
+
+// Cascade of second-order sections.
+class SosFilter(private val sections: Array<Biquad>) {
+    private var started = false
+
+    fun process(x: Float): Float {
+        if (!started) {
+            reset(x)
+            started = true
+        }
+        var y = x.toDouble()
+        for (section in sections)
+            y = section.process(y)
+        return y.toFloat()
+    }
+
+    // Starts the filter in steady state for the input x.
+    fun reset(x: Float) {
+        var y = x.toDouble()
+        for (section in sections)
+            y = section.settle(y)
+        started = true
+    }
+}
+
+// Digital Butterworth designs matching scipy.signal.butter. Cutoffs are given in Hz together with the
+// sample rate; cutoff / (sampleRate / 2) is scipy's normalized Wn.
+object Butterworth {
+    fun lowPass(order: Int, cutoffHz: Double, sampleRateHz: Double): SosFilter {
+        return design(order, cutoffHz / (sampleRateHz / 2), false)
+    }
+
+    fun highPass(order: Int, cutoffHz: Double, sampleRateHz: Double): SosFilter {
+        return design(order, cutoffHz / (sampleRateHz / 2), true)
+    }
+
+    private fun design(order: Int, wn: Double, highPass: Boolean): SosFilter {
+        // Pre-warped analog cutoff for the bilinear transform with fs = 2, as scipy does.
+        val warped = 4.0 * tan(PI * wn / 2)
+        val sections = ArrayList<Biquad>()
+        for (k in 0 until order / 2) {
+            // Analog prototype pole in the upper left half plane; its conjugate is implied.
+            val angle = PI * (2 * k + order + 1) / (2 * order)
+            var re = cos(angle)
+            var im = sin(angle)
+            if (highPass) {
+                // s -> warped / s
+                val norm = re * re + im * im
+                re = warped * re / norm
+                im = -warped * im / norm
+            } else {
+                re *= warped
+                im *= warped
+            }
+            // Bilinear transform z = (4 + s) / (4 - s).
+            val denRe = 4 - re
+            val denIm = -im
+            val denNorm = denRe * denRe + denIm * denIm
+            val zRe = ((4 + re) * denRe + im * denIm) / denNorm
+            val zIm = (im * denRe - (4 + re) * denIm) / denNorm
+            sections.add(normalized(if (highPass) -2.0 else 2.0, 1.0,
+                -2 * zRe, zRe * zRe + zIm * zIm, highPass))
+        }
+        if (order % 2 == 1) {
+            // Real pole at s = -1 of the prototype lands at s = -warped for both band types.
+            val z = (4 - warped) / (4 + warped)
+            sections.add(normalized(if (highPass) -1.0 else 1.0, 0.0, -z, 0.0, highPass))
+        }
+        return SosFilter(sections.toTypedArray())
+    }
+
+    // Section with numerator 1 + b1 z^-1 + b2 z^-2 scaled to unit gain at DC (low pass) or
+    // at Nyquist (high pass).
+    private fun normalized(b1: Double, b2: Double, a1: Double, a2: Double, highPass: Boolean): Biquad {
+        val gain = if (highPass) (1 - a1 + a2) / (1 - b1 + b2) else (1 + a1 + a2) / (1 + b1 + b2)
+        return Biquad(gain, gain * b1, gain * b2, a1, a2)
+    }
+}
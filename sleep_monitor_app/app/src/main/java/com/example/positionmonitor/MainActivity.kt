@@ -89,6 +89,23 @@ class MainActivity : AppCompatActivity() {
         bindService(positionIntent, myConnection, Context.BIND_AUTO_CREATE)
     }
 
+    // Lets the sensor hub batch accelerometer and magnetometer events instead of waking per event.
+    fun startBatchedRecording(view: View) {
+        positionIntent = Intent(this, PositionMonitorService::class.java)
+        positionIntent?.putExtra(PositionMonitorService.EXTRA_BATCHING, true)
+        startService(positionIntent)
+        bindService(positionIntent, myConnection, Context.BIND_AUTO_CREATE)
+    }
+
+    // Takes orientation from the sensor hub's rotation vector, batched like startBatchedRecording().
+    fun startRotationVectorRecording(view: View) {
+        positionIntent = Intent(this, PositionMonitorService::class.java)
+        positionIntent?.putExtra(PositionMonitorService.EXTRA_BATCHING, true)
+        positionIntent?.putExtra(PositionMonitorService.EXTRA_ROTATION_VECTOR, true)
+        startService(positionIntent)
+        bindService(positionIntent, myConnection, Context.BIND_AUTO_CREATE)
+    }
+
     fun stopRecording(view: View) {
         if (positionIntent != null)
             stopService(positionIntent)
@@ -9,12 +9,14 @@ import android.hardware.SensorManager
 import android.os.Build
 import android.os.IBinder
 import android.os.PowerManager
+import android.os.SystemClock
 import androidx.appcompat.app.AppCompatActivity
-import java.io.DataOutputStream
 import java.io.FileOutputStream
+import java.io.IOException
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.locks.LockSupport
 import kotlin.math.abs
 import kotlin.math.sqrt
 import android.os.Binder
@@ -25,63 +27,56 @@ import android.app.Service
 import android.content.Intent
 import android.hardware.usb.*
 
+import com.berry_med.spo2.acquisition.DesaturationDetector
+import com.berry_med.spo2.acquisition.ParseRunnable
+import com.berry_med.spo2.acquisition.FrameBlock
+import com.berry_med.spo2.acquisition.FrameSink
 import com.berry_med.spo2.fragment.MeasureFragment
+import com.example.positionmonitor.recording.RecordingFileWriter
+import com.example.positionmonitor.recording.RecordingFormat
+import com.example.positionmonitor.recording.RecordingWriter
 
+// Running mean of the last maxSize 3D vectors, one SlidingWindow per axis.
 open class MeanVector(protected val maxSize: Int) {
-    protected val values = mutableListOf<FloatArray>()
+    protected val windows = arrayOf(SlidingWindow(maxSize), SlidingWindow(maxSize), SlidingWindow(maxSize))
     protected var currentMean = floatArrayOf(0f, 0f, 0f, 1f)
 
     open fun addValue(inputValue: FloatArray) {
-        val value = inputValue.clone()
-        currentMean[0] = currentMean[0] * values.size + value[0]
-        currentMean[1] = currentMean[1] * values.size + value[1]
-        currentMean[2] = currentMean[2] * values.size + value[2]
-        values.add(value)
-        if (values.size > maxSize) {
-            currentMean[0] -= values[0][0]
-            currentMean[1] -= values[0][1]
-            currentMean[2] -= values[0][2]
-            values.removeAt(0)
-        }
-        currentMean[0] /= values.size.toFloat()
-        currentMean[1] /= values.size.toFloat()
-        currentMean[2] /= values.size.toFloat()
+        add(inputValue[0], inputValue[1], inputValue[2])
+    }
+
+    protected fun add(x: Float, y: Float, z: Float) {
+        windows[0].add(x)
+        windows[1].add(y)
+        windows[2].add(z)
+        currentMean[0] = windows[0].mean()
+        currentMean[1] = windows[1].mean()
+        currentMean[2] = windows[2].mean()
     }
 
     fun mean(): FloatArray {
         return currentMean
     }
+
+    fun count(): Int {
+        return windows[0].count()
+    }
 }
 
 class MeanLine(maxSize: Int) : MeanVector(maxSize) {
     override fun addValue(inputValue: FloatArray) {
-        val value = inputValue.clone()
-        val maxDim = maxDimension(value)
+        val maxDim = maxDimension(inputValue)
         // Phone screen facing up means positive acceleration values point down to the ground. I want positive
         // values to point up to show stomach displacement.
-        if (value[maxDim] > 0) {
-            value[0] = -value[0]
-            value[1] = -value[1]
-            value[2] = -value[2]
-        }
-        currentMean[0] = currentMean[0] * values.size + value[0]
-        currentMean[1] = currentMean[1] * values.size + value[1]
-        currentMean[2] = currentMean[2] * values.size + value[2]
-        values.add(value)
-        if (values.size > maxSize) {
-            currentMean[0] -= values[0][0]
-            currentMean[1] -= values[0][1]
-            currentMean[2] -= values[0][2]
-            values.removeAt(0)
-        }
-        currentMean[0] /= values.size.toFloat()
-        currentMean[1] /= values.size.toFloat()
-        currentMean[2] /= values.size.toFloat()
+        if (inputValue[maxDim] > 0)
+            add(-inputValue[0], -inputValue[1], -inputValue[2])
+        else
+            add(inputValue[0], inputValue[1], inputValue[2])
     }
 
     protected fun maxDimension(value: FloatArray): Int {
         var maxDim = 0
-        if (values.size > 0) {
+        if (count() > 0) {
             if (abs(currentMean[2]) > abs(currentMean[1]) && abs(currentMean[1]) > abs(currentMean[0]))
                 maxDim = 2
             else if (abs(currentMean[1]) > abs(currentMean[2]) && abs(currentMean[1]) > abs(currentMean[0]))
@@ -97,25 +92,18 @@ class MeanLine(maxSize: Int) : MeanVector(maxSize) {
 }
 
 class MeanValue(protected val maxSize: Int) {
-    protected val values = mutableListOf<Float>()
-    protected var currentMean = 0f
-
-    open fun addValue(value: Float) {
-        currentMean = currentMean * values.size + value
-        values.add(value)
-        if (values.size > maxSize) {
-            currentMean -= values[0]
-            values.removeAt(0)
-        }
-        currentMean /= values.size.toFloat()
+    protected val window = SlidingWindow(maxSize)
+
+    fun addValue(value: Float) {
+        window.add(value)
     }
 
     fun mean(): Float {
-        return currentMean
+        return window.mean()
     }
 
     fun count(): Int {
-        return values.size
+        return window.count()
     }
 }
 
@@ -134,6 +122,35 @@ fun vecProduct(vector: FloatArray, factor: Float): FloatArray {
     return floatArrayOf(vector[0] * factor, vector[1] * factor, vector[2] * factor, 1f)
 }
 
+// In-place variants for the per-sample path: write the result into dst and return it.
+
+// dst = vec1 - vec2
+fun vecSubtract(dst: FloatArray, vec1: FloatArray, vec2: FloatArray): FloatArray {
+    dst[0] = vec1[0] - vec2[0]
+    dst[1] = vec1[1] - vec2[1]
+    dst[2] = vec1[2] - vec2[2]
+    dst[3] = 1f
+    return dst
+}
+
+// dst = vec1 + vec2*factor
+fun vecAddProduct(dst: FloatArray, vec1: FloatArray, vec2: FloatArray, factor: Float): FloatArray {
+    dst[0] = vec1[0] + factor * vec2[0]
+    dst[1] = vec1[1] + factor * vec2[1]
+    dst[2] = vec1[2] + factor * vec2[2]
+    dst[3] = 1f
+    return dst
+}
+
+// dst = vector*factor
+fun vecProduct(dst: FloatArray, vector: FloatArray, factor: Float): FloatArray {
+    dst[0] = vector[0] * factor
+    dst[1] = vector[1] * factor
+    dst[2] = vector[2] * factor
+    dst[3] = 1f
+    return dst
+}
+
 fun vecString(vector: FloatArray): String {
     return vector[0].toString() + "," + vector[1].toString() + "," + vector[2].toString()
 }
@@ -157,6 +174,19 @@ fun vecProjectionToScalar(point: FloatArray, vector: FloatArray): Float {
 
 
 class PositionMonitorService : Service(), SensorEventListener {
+    companion object {
+        // Intent extras selecting the hardware batching mode and the sensor sampling period.
+        const val EXTRA_BATCHING = "batching"
+        const val EXTRA_SAMPLING_PERIOD_US = "samplingPeriodUs"
+        // Orientation from the sensor hub's rotation vector instead of accelerometer and magnetometer.
+        const val EXTRA_ROTATION_VECTOR = "rotationVector"
+        // Period of the recorded rows; defaults to the sampling period.
+        const val EXTRA_OUTPUT_PERIOD_US = "outputPeriodUs"
+        // Sensor readings come in every 0.19 seconds with SENSOR_DELAY_NORMAL.
+        const val NOMINAL_SAMPLING_PERIOD_US = SamplePipeline.NOMINAL_PERIOD_US
+        // How long the sensor hub may hold events in its FIFO before waking the CPU.
+        const val BATCH_LATENCY_US = 10000000
+    }
 
     val kChannelId = "PositionMonitorId"
     protected val kNotificationId = 1
@@ -164,17 +194,42 @@ class PositionMonitorService : Service(), SensorEventListener {
 
     private lateinit var sensorManager: SensorManager
     private val linearAccelerometerReading = floatArrayOf(0f, 0f, 0f, 1f)
-    private val accelerometerReading = floatArrayOf(0f, 0f, 0f, 1f)
-    private val magnetometerReading = floatArrayOf(0f, 0f, 0f, 1f)
 
     private var sensorUnixTimestamp = 0L
     private var firstSensorUnixTimestamp = 0L
     private var lastSensorTime: Long = 0
     private var deltaTime = 0f
+    // Unix time in ms minus event.timestamp in ms, so sensor times are not taken when delivered.
+    private var unixOffsetMillis = 0L
+    private var batching = false
+    // Aligns all sources on the output clock; each row is processed at one exact timestamp.
+    private var fusion = SampleFusion(NOMINAL_SAMPLING_PERIOD_US * 1000L, 1000000000L, 64)
+    private val thermistorSample = FloatArray(1)
+
+    // onSensorChanged() only copies events into sensorRing; merging, processing and all file writes
+    // run on processingThread, so a slow disk or filter never holds up sensor delivery.
+    private var sensorRing = SensorRing(128)
+    private var processingThread: Thread? = null
+    @Volatile private var processing = false
+    private val ringValues = FloatArray(SensorRing.WIDTH)
+    private val quaternion = floatArrayOf(0f, 0f, 0f, 1f)
+    // Sensor type the orientation comes from: a rotation vector type, or the magnetometer.
+    private var orientationSensorType = Sensor.TYPE_MAGNETIC_FIELD
 
     private var textFile: File? = null
     private var filename: String? = null
-    private var currentFile: DataOutputStream? = null
+    // Rows are written in 10 second columnar chunks indexed by time, committed in blocks and forced
+    // to storage every 10 seconds, so a crash loses at most the last chunk or so of recording.
+    // The pleth and desaturation streams are written from the parser thread, the rest from
+    // processingThread, which also closes the file.
+    @Volatile private var currentFile: RecordingFileWriter? = null
+    private val desaturationValues = FloatArray(RecordingSchema.desaturationChannelCount)
+    private val apneaValues = FloatArray(RecordingSchema.apneaChannelCount)
+    @Volatile private var plethSampleCount = 0L
+    // Set when a write from the parser thread fails. That stream is not written again for the file,
+    // and the error is not passed on, so a recording failure never stops oximeter acquisition.
+    @Volatile private var plethWriteFailed = false
+    @Volatile private var desaturationWriteFailed = false
 
     protected var powerManager: PowerManager? = null
     protected var wakeLock: PowerManager.WakeLock? = null
@@ -184,30 +239,32 @@ class PositionMonitorService : Service(), SensorEventListener {
 
     // The last time the mean velocity and position were subtracted and set to 0
     private var lastNormTime: Long = 0L
-    private var accelerationInitCount: Int = 0
     private var velocityInitCount: Int = 0
 
     var velocityVector = floatArrayOf(0f, 0f, 0f, 1f)
     var positionVector = floatArrayOf(0f, 0f, 0f, 1f)
 
-    // Sensor readings come in every 0.19 seconds
-    private val meanMaxSize = 75
-    private var meanAcceleration = MeanVector(30)
-    //private var meanVelocity = MeanVector(meanMaxSize)
-    //private var meanPosition = MeanVector(meanMaxSize)
-    private var meanPositionDiff = MeanLine(meanMaxSize)
-    private var meanOrientation = MeanVector(meanMaxSize)
-    private var meanOrientationDiff = MeanLine(meanMaxSize)
-    private var meanThermistor = MeanValue(meanMaxSize)
+    // Means, filters and detectors for the rows; replaced by configureProcessing() for the output period.
+    private var pipeline = SamplePipeline(NOMINAL_SAMPLING_PERIOD_US)
+
+    // Scratch buffers reused for every sample so processValues() does not allocate.
+    private val rotationMatrix = FloatArray(16)
+    private val orientationAngles = floatArrayOf(0f, 0f, 0f, 1f)
+    private val entry = FloatArray(RecordingSchema.rowChannelCount)
 
     private val ACTION_USB_PERMISSION = "com.android.example.USB_PERMISSION"
     var device: UsbDevice? = null
     lateinit var usbManager: UsbManager
     var serial: UsbSerialDevice? = null
     var serialText: String = ""
-    var currentThermistorValue = 0
+    @Volatile var currentThermistorValue = 0
 
-    var statusText: String = ""
+    // Built on demand from the latest values when the activity polls it, so the sensor path does not
+    // format a string per sample.
+    val statusText: String
+        get() = if (sensorCount == 0L) statusMessage else buildStatus()
+    private var statusMessage: String = ""
+    private val statusOxiParams = ParseRunnable.OxiParams()
 
     val measureFragment = MeasureFragment()
 
@@ -238,6 +295,8 @@ class PositionMonitorService : Service(), SensorEventListener {
                         continue
                     val numberText = valueText.replace("|", "").replace("\n", "").replace("\r", "")
                     currentThermistorValue = numberText.toInt()
+                    thermistorSample[0] = currentThermistorValue.toFloat()
+                    fusion.thermistor.add(SystemClock.elapsedRealtimeNanos(), thermistorSample)
                 }
                 //Log.d("D", "Success")
             }
@@ -341,23 +400,32 @@ class PositionMonitorService : Service(), SensorEventListener {
         measureFragment.connect(this)
 
         sensorManager = getSystemService(Context.SENSOR_SERVICE) as SensorManager
+        batching = intent.getBooleanExtra(EXTRA_BATCHING, false)
+        val samplingPeriodUs = intent.getIntExtra(EXTRA_SAMPLING_PERIOD_US, NOMINAL_SAMPLING_PERIOD_US)
+        configureProcessing(samplingPeriodUs, intent.getIntExtra(EXTRA_OUTPUT_PERIOD_US, samplingPeriodUs))
+        measureFragment.setFrameListener(oximeterFrames)
         setCurrentFile()
+        startProcessing()
 
+        unixOffsetMillis = System.currentTimeMillis() - SystemClock.elapsedRealtimeNanos() / 1000000
+        // In batching mode the sensor hub keeps events in its FIFO for up to BATCH_LATENCY_US and
+        // delivers them in bursts, so the CPU wakes once per burst rather than once per event.
+        val maxReportLatencyUs = if (batching) BATCH_LATENCY_US else 0
         sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)?.also { accelerometer ->
-            sensorManager.registerListener(
-                this,
-                accelerometer,
-                SensorManager.SENSOR_DELAY_NORMAL,
-                SensorManager.SENSOR_DELAY_UI
-            )
+            sensorManager.registerListener(this, accelerometer, samplingPeriodUs, maxReportLatencyUs)
         }
-        sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD)?.also { magnetometer ->
-            sensorManager.registerListener(
-                this,
-                magnetometer,
-                SensorManager.SENSOR_DELAY_NORMAL,
-                SensorManager.SENSOR_DELAY_UI
-            )
+        // The game rotation vector is fused on the sensor hub from accelerometer and gyroscope, so
+        // its azimuth drifts slowly but is not disturbed by magnetic fields near the bed. The
+        // orientation diff only looks at changes within the averaging window, where that is fine.
+        var orientationSensor: Sensor? = null
+        if (intent.getBooleanExtra(EXTRA_ROTATION_VECTOR, false))
+            orientationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR)
+                ?: sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR)
+        if (orientationSensor == null)
+            orientationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD)
+        orientationSensor?.also { sensor ->
+            orientationSensorType = sensor.type
+            sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs)
         }
 
         if (powerManager == null)
@@ -377,8 +445,11 @@ class PositionMonitorService : Service(), SensorEventListener {
 
     override fun onDestroy() {
         sensorManager.unregisterListener(this)
-        currentFile?.close()
-        currentFile = null
+        measureFragment.setFrameListener(null)
+        measureFragment.setDesaturationListener(null)
+        stopProcessing()
+        measureFragment.release()
+        pipeline.apneaClassifier.listener = null
         wakeLock?.release()
         serial?.close()
         super.onDestroy()
@@ -394,108 +465,224 @@ class PositionMonitorService : Service(), SensorEventListener {
         directory.mkdirs()
         val name = SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(Date())
         filename = File(directory, name).toString()
-        currentFile = DataOutputStream(FileOutputStream(filename + ".dat"))
+        // Self-describing container; the channel schema and clock reference are in its header.
+        val header = RecordingSchema.header(System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos(), pipeline.rateHz)
+        currentFile = RecordingFileWriter(RecordingWriter(FileOutputStream(filename + ".rec").channel), header,
+                RecordingFormat.ENCODING_COLUMNS)
+        plethWriteFailed = false
+        desaturationWriteFailed = false
+        val apneaClassifier = pipeline.apneaClassifier
+        measureFragment.setDesaturationListener(object : DesaturationDetector.OnDesaturationListener {
+            // Called on the parser thread.
+            override fun onDesaturation(startNanos: Long, nadirNanos: Long, endNanos: Long, baseline: Int, nadir: Int) {
+                desaturationValues[0] = ((nadirNanos - startNanos) / 1000000).toFloat()
+                desaturationValues[1] = ((endNanos - startNanos) / 1000000).toFloat()
+                desaturationValues[2] = baseline.toFloat()
+                desaturationValues[3] = nadir.toFloat()
+                if (!desaturationWriteFailed) {
+                    try {
+                        currentFile?.writeRecord(RecordingSchema.DESATURATIONS, startNanos, desaturationValues)
+                    } catch (e: IOException) {
+                        Log.e("RECORDING", "Desaturation write failed", e)
+                        desaturationWriteFailed = true
+                    }
+                }
+                apneaClassifier.onDesaturation(startNanos, nadirNanos, endNanos, baseline, nadir)
+            }
+        })
+        apneaClassifier.listener = object : ApneaClassifier.Listener {
+            // Called on processingThread.
+            override fun onApnea(startNanos: Long, endNanos: Long, type: Int, correlation: Float,
+                                 desaturationNadirNanos: Long, desaturationDrop: Int) {
+                apneaValues[0] = ((endNanos - startNanos) / 1000000).toFloat()
+                apneaValues[1] = type.toFloat()
+                apneaValues[2] = correlation
+                apneaValues[3] = if (desaturationNadirNanos == 0L) 0f else ((desaturationNadirNanos - startNanos) / 1000000).toFloat()
+                apneaValues[4] = desaturationDrop.toFloat()
+                currentFile?.writeRecord(RecordingSchema.APNEAS, startNanos, apneaValues)
+            }
+        }
         textFile = File(directory, name + ".txt")
         lastNormTime = System.currentTimeMillis()
     }
 
     fun setStatus(text: String) {
-        statusText = text
+        statusMessage = text
+    }
+
+    private fun buildStatus(): String {
+        val elapsed = (sensorUnixTimestamp - firstSensorUnixTimestamp) / 1000.0
+        val sensorRate = sensorCount / elapsed
+        val oxiParams = measureFragment.readOxiParams(statusOxiParams)
+        val parser = measureFragment.mParseRunnable
+        val desaturations = measureFragment.desaturationDetector
+        val pipeline = pipeline
+        val breathDetector = pipeline.breathDetector
+        val apneaClassifier = pipeline.apneaClassifier
+        return "sensorCount=$sensorCount\nelapsed=$elapsed\nsamples/sec=$sensorRate\nbatching=$batching\n" +
+                "orientationSensor=$orientationSensorType\n" +
+                "sensorRingDepth=${sensorRing.depth()}\nsensorRingMaxDepth=${sensorRing.maxDepth}\n" +
+                "sensorRingDropped=${sensorRing.droppedCount}\n" +
+                "fusionRows=${fusion.rowCount}\nfusionHeld=${fusion.heldCount}\nfusionSkipped=${fusion.skippedCount}\n" +
+                "fusionDropped=${fusion.droppedCount()}\nfileCommits=${currentFile?.writer?.commitCount}\n" +
+                "fileSyncs=${currentFile?.writer?.syncCount}\nprojectedPosition=" +
+                pipeline.projectionPosition.toString() + "\nprojectedOrientation=" +
+                pipeline.projectionOrientation.toString() + "\nThermistor=" + pipeline.thermistorDiff.toString() + "\nbreaths=${breathDetector.breathCount}\n" +
+                "breathsPerMin=${breathDetector.rate}\nSpO2=${oxiParams.spo2}\n" +
+                "PulseRate=${oxiParams.pulseRate}\nPi=${oxiParams.pi}\nmeanSpO2Wave=$meanSpO2Wave\n" +
+                "plethMin=${fusion.plethMin[0]}\nplethMax=${fusion.plethMax[0]}\nplethLast=${fusion.plethLast[0]}\n" +
+                "oxiFrames=${parser?.framesDecoded}\noxiDropped=${parser?.framesDropped}\n" +
+                "oxiRingOverflows=${parser?.overflowCount}\noxiBytesDropped=${parser?.droppedBytes}\n" +
+                "oxiResync=${parser?.resyncCount}\noxiBytesDiscarded=${parser?.bytesDiscarded}\n" +
+                "oxiGaps=${parser?.gapCount}\noxiMissing=${parser?.missingSamples}\n" +
+                "oxiJitterMs=${(parser?.jitterNanos ?: 0L) / 1000000}\n" +
+                "plethSamples=$plethSampleCount\nplethWriteFailed=$plethWriteFailed\n" +
+                "desaturationWriteFailed=$desaturationWriteFailed\n" +
+                "odi3=${desaturations.odi3}\nodi4=${desaturations.odi4}\n" +
+                "desaturations=${desaturations.eventCount3}\nodiValidSec=${desaturations.validSeconds}\n" +
+                "obstructiveApneas=${apneaClassifier.obstructiveCount}\ncentralApneas=${apneaClassifier.centralCount}\n" +
+                "apneasWithDesaturation=${apneaClassifier.linkedCount}\neffortAirflowCorrelation=${apneaClassifier.correlation}"
+    }
+
+    // Sizes the windows and filters for the output period, and the queues for the sampling period.
+    private fun configureProcessing(samplingPeriodUs: Int, outputPeriodUs: Int) {
+        pipeline = SamplePipeline(outputPeriodUs)
+        // Room for a full batch plus the time to wait for the other sensor's burst.
+        val timeoutNanos = (if (batching) BATCH_LATENCY_US else 0) * 1000L + 1000000000L
+        val motionCapacity = (timeoutNanos / 1000L / samplingPeriodUs).toInt() * 2 + 16
+        fusion = SampleFusion(outputPeriodUs * 1000L, timeoutNanos, motionCapacity)
+        // Both sensors' bursts may be waiting at once.
+        sensorRing = SensorRing(motionCapacity * 2)
+    }
+
+    // Feeds the oximeter channels on the parser thread, one entry per 100 Hz frame, and records the pleth.
+    private val oximeterFrames = object : FrameSink {
+        private val parameters = FloatArray(3)
+        private val sample = FloatArray(1)
+
+        override fun onFrames(frames: FrameBlock) {
+            for (idx in 0 until frames.count) {
+                val spo2 = frames.spo2[idx]
+                val pulseRate = frames.pr[idx]
+                val pi = frames.pi[idx].toInt()
+                // Same rule as OxiParams.isParamsValid(): all three are zeroed while any is invalid.
+                val valid = spo2 != 127 && pulseRate != 255 && pi != 15 && spo2 != 0 && pulseRate != 0 && pi != 0
+                parameters[0] = if (valid) spo2.toFloat() else 0f
+                parameters[1] = if (valid) pulseRate.toFloat() else 0f
+                parameters[2] = if (valid) pi.toFloat() else 0f
+                fusion.oximeter.add(frames.timestampNanos[idx], parameters)
+                sample[0] = frames.pleth[idx].toFloat()
+                fusion.pleth.add(frames.timestampNanos[idx], sample)
+                if (!plethWriteFailed) {
+                    try {
+                        currentFile?.writeRecord(RecordingSchema.PLETH, frames.timestampNanos[idx], sample)
+                    } catch (e: IOException) {
+                        Log.e("RECORDING", "Pleth write failed", e)
+                        plethWriteFailed = true
+                    }
+                }
+            }
+            plethSampleCount += frames.count
+        }
     }
 
     override fun onAccuracyChanged(sensor: Sensor, accuracy: Int) {}
 
     override fun onSensorChanged(event: SensorEvent) {
-        when (event.sensor?.type) {
-            Sensor.TYPE_MAGNETIC_FIELD -> {
-                System.arraycopy(event.values, 0, magnetometerReading, 0, 3)
+        val type = event.sensor?.type ?: return
+        if (type == Sensor.TYPE_ACCELEROMETER || type == orientationSensorType)
+            sensorRing.add(type, event.timestamp, event.values)
+    }
+
+    private fun startProcessing() {
+        processing = true
+        processingThread = Thread(Runnable { runProcessing() }, "sensor-processing").apply { start() }
+    }
+
+    private fun stopProcessing() {
+        processing = false
+        val thread = processingThread ?: return
+        LockSupport.unpark(thread)
+        // The thread commits and closes the recording on its way out; wait for that to finish.
+        thread.join()
+        processingThread = null
+    }
+
+    private fun runProcessing() {
+        try {
+            processSensorRing()
+        } finally {
+            // Only this thread writes the recording, so it also closes it, after the last row.
+            currentFile?.close()
+            currentFile = null
+        }
+    }
+
+    private fun processSensorRing() {
+        while (processing) {
+            var slot = sensorRing.peekSlot()
+            if (slot < 0) {
+                sensorRing.await(100000000L)
+                continue
             }
-            Sensor.TYPE_ACCELEROMETER -> {
-                sensorUnixTimestamp = System.currentTimeMillis()
-                System.arraycopy(event.values, 0, accelerometerReading, 0, 3)
-                deltaTime = (event.timestamp - lastSensorTime) / 1.0e9f
-                lastSensorTime = event.timestamp
-                processValues()
+            while (slot >= 0) {
+                sensorRing.copyValues(slot, ringValues)
+                val timestamp = sensorRing.timestampAt(slot)
+                when (sensorRing.typeAt(slot)) {
+                    Sensor.TYPE_ACCELEROMETER -> fusion.accelerometer.add(timestamp, ringValues)
+                    Sensor.TYPE_MAGNETIC_FIELD -> fusion.magnetometer.add(timestamp, ringValues)
+                    else -> {
+                        Quaternion.fromRotationVector(quaternion, ringValues)
+                        fusion.rotation.add(timestamp, quaternion)
+                    }
+                }
+                sensorRing.release()
+                slot = sensorRing.peekSlot()
             }
+            processRows()
+        }
+    }
+
+    // Processes every row the fusion stage can complete, in output clock order.
+    private fun processRows() {
+        while (true) {
+            val timestamp = fusion.next()
+            if (timestamp == 0L)
+                break
+            sensorUnixTimestamp = timestamp / 1000000 + unixOffsetMillis
+            deltaTime = (timestamp - lastSensorTime) / 1.0e9f
+            lastSensorTime = timestamp
+            processValues()
         }
     }
 
     private fun processValues() {
         if (currentFile == null)
             return
-        // Rotation matrix based on current readings from accelerometer and magnetometer.
-        val rotationMatrix = FloatArray(16)
-        SensorManager.getRotationMatrix(rotationMatrix, null, accelerometerReading,
-            magnetometerReading)
-        // Express the updated rotation matrix as three orientation angles in radians.
-        val orientationAngles = floatArrayOf(0f, 0f, 0f, 1f)
-        SensorManager.getOrientation(rotationMatrix, orientationAngles)
-
-        meanOrientation.addValue(orientationAngles)
-        val orientationDiff = vecSubtract(orientationAngles, meanOrientation.mean())
-        meanOrientationDiff.addValue(orientationDiff)
-        val projectionOrientation = vecProjectionToScalar(orientationDiff, meanOrientationDiff.mean())
-
-        meanThermistor.addValue(currentThermistorValue.toFloat())
-        val thermistorDiff = currentThermistorValue - meanThermistor.mean()
-
-        // Vectors in a fixed reference frame where:
-        // X is tangential to the ground at the device's current location and roughly points East
-        // Y is tangential to the ground and points towards the magnetic North Pole
-        // Z points towards the sky and is perpendicular to the ground.
-        // Vectors in a fixed reference frame where y points east
-        val accelerationVector = accelerometerReading
-
-        meanAcceleration.addValue(accelerationVector)
-        val acceleration = vecSubtract(accelerationVector, meanAcceleration.mean())
-
-        val initializationSize = 20
-        if (accelerationInitCount < initializationSize) {
-            accelerationInitCount++
-            return
+        if (orientationSensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+            // Rotation matrix based on current readings from accelerometer and magnetometer.
+            SensorManager.getRotationMatrix(rotationMatrix, null, fusion.acceleration,
+                fusion.magneticField)
+            // Express the updated rotation matrix as three orientation angles in radians.
+            SensorManager.getOrientation(rotationMatrix, orientationAngles)
+        } else {
+            // Same angles straight from the fused rotation vector.
+            Quaternion.toOrientation(fusion.orientation, orientationAngles)
         }
 
-        // I tried double integrating acceleration to track position, but I wasn't able to get good values.
-        // Acceleration produces a better periodic signal of breathing.
-        meanPositionDiff.addValue(acceleration)
-        val projectionPosition = vecProjectionToScalar(acceleration, meanPositionDiff.mean())
-
-        sensorCount++
-        val elapsed = (sensorUnixTimestamp - firstSensorUnixTimestamp) / 1000.0
-        val sensorRate = sensorCount / elapsed
-        val oxiParams = measureFragment.oxiParams
-        val waveSize = measureFragment.wfSpO2Wave.size
-        var toTake = 2
-        if (waveSize > 20)
-            toTake += waveSize - 20
-        else if (toTake > waveSize)
-            toTake = waveSize
-
-        var value = 0
-        for (idx in 1..toTake)
-            value += measureFragment.wfSpO2Wave.take()
-        if (toTake > 0)
-            meanSpO2Wave = value / toTake.toFloat()
-
-        val entry = floatArrayOf(projectionPosition, projectionOrientation,
-            orientationAngles[0], orientationAngles[1], orientationAngles[2], thermistorDiff,
-            oxiParams.spo2.toFloat(), oxiParams.pulseRate.toFloat(), oxiParams.pi.toFloat(), meanSpO2Wave)
+        if (!pipeline.process(lastSensorTime, orientationAngles, fusion.acceleration, fusion.thermistorValue[0],
+                fusion.oximeterValues, fusion.plethMean[0], entry))
+            return
+        // Mean of the pleth samples within this row's period, kept while the oximeter is silent.
+        meanSpO2Wave = entry[9]
         appendValues(lastSensorTime, entry)
-        setStatus("sensorCount=$sensorCount\nelapsed=$elapsed\nsamples/sec=$sensorRate\nprojectedPosition=" +
-                projectionPosition.toString() + "\nprojectedOrientation=" + projectionOrientation.toString() +
-                "\nThermistor=" + thermistorDiff.toString() + "\nSpO2=${oxiParams.spo2}\n" +
-                "PulseRate=${oxiParams.pulseRate}\nPi=${oxiParams.pi}\nmeanSpO2Wave=$meanSpO2Wave")
+        sensorCount++
     }
 
     private fun appendValues(timestamp: Long, values: FloatArray) {
-        if (firstSensorUnixTimestamp == 0L) {
+        if (firstSensorUnixTimestamp == 0L)
             firstSensorUnixTimestamp = sensorUnixTimestamp
-            currentFile?.writeLong(sensorUnixTimestamp)
-        }
-        currentFile?.writeLong(timestamp)
-        for (value in values)
-            currentFile?.writeFloat(value)
-        currentFile?.flush()
+        currentFile?.writeRecord(RecordingSchema.ROWS, timestamp, values)
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.example.positionmonitor
+
+import kotlin.math.asin
+import kotlin.math.atan2
+import kotlin.math.sqrt
+
+// Quaternion math on primitive arrays laid out (x, y, z, w), as in the rotation vector sensors.
+// Nothing allocates, so it can run per sample; dst may be the same array as an input except
+// where noted.
+object Quaternion {
+    // Unit quaternion from rotation vector sensor values. w is computed when the sensor does not
+    // report it (values[3] missing or 0), like SensorManager.getQuaternionFromVector().
+    fun fromRotationVector(dst: FloatArray, values: FloatArray) {
+        val x = values[0]
+        val y = values[1]
+        val z = values[2]
+        var w = if (values.size > 3) values[3] else 0f
+        if (w == 0f) {
+            val squared = 1f - x * x - y * y - z * z
+            w = if (squared > 0f) sqrt(squared) else 0f
+        }
+        dst[0] = x
+        dst[1] = y
+        dst[2] = z
+        dst[3] = w
+        normalize(dst)
+    }
+
+    fun normalize(q: FloatArray) {
+        val norm = sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3])
+        if (norm == 0f) {
+            q[0] = 0f; q[1] = 0f; q[2] = 0f; q[3] = 1f
+            return
+        }
+        for (idx in 0 until 4)
+            q[idx] /= norm
+    }
+
+    fun dot(a: FloatArray, b: FloatArray): Float {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]
+    }
+
+    // Normalized linear interpolation along the shorter arc; close to slerp for the small angles
+    // between consecutive sensor samples.
+    fun nlerp(dst: FloatArray, a: FloatArray, b: FloatArray, fraction: Float) {
+        val sign = if (dot(a, b) < 0f) -1f else 1f
+        for (idx in 0 until 4)
+            dst[idx] = a[idx] + (sign * b[idx] - a[idx]) * fraction
+        normalize(dst)
+    }
+
+    // dst = a * b; dst must not be a or b.
+    fun multiply(dst: FloatArray, a: FloatArray, b: FloatArray) {
+        dst[0] = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1]
+        dst[1] = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0]
+        dst[2] = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3]
+        dst[3] = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2]
+    }
+
+    fun conjugate(dst: FloatArray, q: FloatArray) {
+        dst[0] = -q[0]
+        dst[1] = -q[1]
+        dst[2] = -q[2]
+        dst[3] = q[3]
+    }
+
+    // Row-major rotation matrix, 3x3 or 4x4 depending on dst.size, like getRotationMatrixFromVector().
+    fun toRotationMatrix(dst: FloatArray, q: FloatArray) {
+        val x = q[0]
+        val y = q[1]
+        val z = q[2]
+        val w = q[3]
+        val stride = if (dst.size == 16) 4 else 3
+        dst[0] = 1f - 2f * (y * y + z * z)
+        dst[1] = 2f * (x * y - z * w)
+        dst[2] = 2f * (x * z + y * w)
+        dst[stride] = 2f * (x * y + z * w)
+        dst[stride + 1] = 1f - 2f * (x * x + z * z)
+        dst[stride + 2] = 2f * (y * z - x * w)
+        dst[2 * stride] = 2f * (x * z - y * w)
+        dst[2 * stride + 1] = 2f * (y * z + x * w)
+        dst[2 * stride + 2] = 1f - 2f * (x * x + y * y)
+        if (stride == 4) {
+            dst[3] = 0f; dst[7] = 0f; dst[11] = 0f
+            dst[12] = 0f; dst[13] = 0f; dst[14] = 0f; dst[15] = 1f
+        }
+    }
+
+    // Azimuth, pitch and roll in radians with the conventions of SensorManager.getOrientation()
+    // applied to toRotationMatrix(q).
+    fun toOrientation(q: FloatArray, dst: FloatArray) {
+        val x = q[0]
+        val y = q[1]
+        val z = q[2]
+        val w = q[3]
+        dst[0] = atan2(2f * (x * y - z * w), 1f - 2f * (x * x + z * z))
+        dst[1] = asin((-2f * (y * z + x * w)).coerceIn(-1f, 1f))
+        dst[2] = atan2(-2f * (x * z - y * w), 1f - 2f * (x * x + y * y))
+    }
+}
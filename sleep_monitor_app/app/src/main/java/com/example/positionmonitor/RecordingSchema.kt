@@ -0,0 +1,82 @@
+package com.example.positionmonitor
+
+import com.example.positionmonitor.recording.ChannelInfo
+import com.example.positionmonitor.recording.RecordingFormat
+import com.example.positionmonitor.recording.RecordingHeader
+import com.example.positionmonitor.recording.StreamInfo
+
+// Schema of the .rec files written by PositionMonitorService. The channels of the rows stream are
+// the entry array of processValues(), in order; new channels are appended and old readers find
+// the ones they know by name. Codecs apply to the columnar chunks the service writes: Gorilla for the
+// smooth float channels, run lengths for the oximeter parameters that change about once a second
+// and varint deltas for the raw thermistor ADC reading.
+//
+// The full-rate pleth and the oximetry and apnea events are streams of their own. Event records are
+// stamped with the start of the event; the other times of the event are ms offsets from it, and
+// SpO2 values are in tenths of a percent. They are rare, so their channels are stored raw.
+object RecordingSchema {
+    const val ROWS = 0
+    const val PLETH = 1
+    const val DESATURATIONS = 2
+    const val APNEAS = 3
+    const val CLOCK_NAME = "elapsedRealtimeNanos"
+
+    private val rowChannels = arrayOf(
+        ChannelInfo("projection_position", "m/s^2", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("projection_orientation", "rad", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("azimuth", "rad", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("pitch", "rad", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("roll", "rad", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("thermistor_diff", "adc", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("spo2", "%", RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_RLE),
+        ChannelInfo("pulse_rate", "1/min", RecordingFormat.TYPE_INT16, RecordingFormat.CODEC_RLE),
+        ChannelInfo("perfusion_index", "raw", RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_RLE),
+        ChannelInfo("mean_pleth", "adc", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("position_low_pass", "m/s^2", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("position_high_pass", "m/s^2", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("orientation_low_pass", "rad", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("thermistor_low_pass", "adc", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("breath_rate", "1/min", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+        ChannelInfo("thermistor", "adc", RecordingFormat.TYPE_INT32, RecordingFormat.CODEC_DELTA_VARINT)
+    )
+
+    // One record per 100 Hz oximeter frame.
+    private val plethChannels = arrayOf(
+        ChannelInfo("pleth", "adc", RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_DELTA_VARINT)
+    )
+
+    // One record per DesaturationDetector event.
+    private val desaturationChannels = arrayOf(
+        ChannelInfo("nadir_offset", "ms", RecordingFormat.TYPE_INT32),
+        ChannelInfo("end_offset", "ms", RecordingFormat.TYPE_INT32),
+        ChannelInfo("baseline", "0.1%", RecordingFormat.TYPE_INT16),
+        ChannelInfo("nadir", "0.1%", RecordingFormat.TYPE_INT16)
+    )
+
+    // One record per ApneaClassifier event; the desaturation channels are 0 when none was linked.
+    private val apneaChannels = arrayOf(
+        ChannelInfo("end_offset", "ms", RecordingFormat.TYPE_INT32),
+        ChannelInfo("type", "", RecordingFormat.TYPE_INT8),
+        ChannelInfo("correlation", "", RecordingFormat.TYPE_FLOAT32),
+        ChannelInfo("desaturation_nadir_offset", "ms", RecordingFormat.TYPE_INT32),
+        ChannelInfo("desaturation_drop", "0.1%", RecordingFormat.TYPE_INT16)
+    )
+
+    val rowChannelCount: Int
+        get() = rowChannels.size
+
+    val desaturationChannelCount: Int
+        get() = desaturationChannels.size
+
+    val apneaChannelCount: Int
+        get() = apneaChannels.size
+
+    fun header(startUnixMillis: Long, clockOriginNanos: Long, rowRateHz: Double): RecordingHeader {
+        val streams = arrayOf(
+            StreamInfo(ROWS, "rows", rowRateHz.toFloat(), rowChannels),
+            StreamInfo(PLETH, "pleth", 100f, plethChannels),
+            StreamInfo(DESATURATIONS, "desaturations", 0f, desaturationChannels),
+            StreamInfo(APNEAS, "apneas", 0f, apneaChannels))
+        return RecordingHeader(startUnixMillis, clockOriginNanos, CLOCK_NAME, streams)
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.positionmonitor
+
+// Builds output rows at exact multiples of periodNanos from per-source timestamped buffers, so
+// every channel in a row describes the same instant whatever order and delay its source had.
+//
+// The accelerometer paces recording: row t is produced once it has a sample after t. Every other
+// source either has caught up with t too, or is more than timeoutNanos behind the accelerometer
+// (disconnected, or not started yet), in which case its last value is held. Motion channels are
+// interpolated (orientation quaternions along the shorter arc), the thermistor and oximeter
+// parameters are held, and the pleth is summarized over the row's period as its mean, minimum,
+// maximum and last sample. When the accelerometer itself has a gap the clock jumps over it instead
+// of interpolating across.
+class SampleFusion(val periodNanos: Long, private val timeoutNanos: Long, motionCapacity: Int) {
+    val accelerometer = TimedChannel(motionCapacity, 3)
+    val magnetometer = TimedChannel(motionCapacity, 3)
+    // Orientation quaternions (x, y, z, w) from a rotation vector sensor, when one is used.
+    val rotation = TimedChannel(motionCapacity, 4)
+    // Raw thermistor reading; the Arduino sends a few per second.
+    val thermistor = TimedChannel(256, 1)
+    // SpO2, pulse rate and PI per oximeter frame (100 Hz), 0 while invalid.
+    val oximeter = TimedChannel(4096, 3)
+    val pleth = TimedChannel(4096, 1)
+
+    // Values of the latest row.
+    val acceleration = floatArrayOf(0f, 0f, 0f, 1f)
+    val magneticField = floatArrayOf(0f, 0f, 0f, 1f)
+    val orientation = floatArrayOf(0f, 0f, 0f, 1f)
+    val thermistorValue = FloatArray(1)
+    val oximeterValues = FloatArray(3)
+    val plethMean = FloatArray(1)
+    val plethMin = FloatArray(1)
+    val plethMax = FloatArray(1)
+    val plethLast = FloatArray(1)
+
+    var rowCount = 0L
+        private set
+    // Rows in which a source was too far behind and had its last value held.
+    var heldCount = 0L
+        private set
+    // Output periods skipped over accelerometer gaps.
+    var skippedCount = 0L
+        private set
+
+    private var nextNanos = 0L
+    private val rotationBefore = FloatArray(4)
+    private val rotationAfter = FloatArray(4)
+
+    // Fills the row values for the next output time and returns it, or 0 if that row is not
+    // complete yet.
+    fun next(): Long {
+        val newest = accelerometer.newestTimestamp
+        if (newest == Long.MIN_VALUE)
+            return 0L
+        if (nextNanos == 0L)
+            nextNanos = (accelerometer.cursorTimestamp() / periodNanos + 1) * periodNanos
+        if (newest <= nextNanos)
+            return 0L
+        accelerometer.advanceTo(nextNanos)
+        val following = accelerometer.followingTimestamp()
+        if (nextNanos - accelerometer.cursorTimestamp() > 2 * periodNanos && following - nextNanos > periodNanos) {
+            val resumeNanos = (following + periodNanos - 1) / periodNanos * periodNanos
+            skippedCount += (resumeNanos - nextNanos) / periodNanos
+            nextNanos = resumeNanos
+            if (newest <= nextNanos)
+                return 0L
+        }
+        if (isWaiting(magnetometer, newest) || isWaiting(rotation, newest) || isWaiting(thermistor, newest) ||
+            isWaiting(oximeter, newest))
+            return 0L
+        val held = isHeld(magnetometer) || isHeld(rotation) || isHeld(thermistor) || isHeld(oximeter)
+
+        val t = nextNanos
+        accelerometer.sampleAt(t, acceleration, true)
+        magnetometer.sampleAt(t, magneticField, true)
+        val fraction = rotation.bracket(t, rotationBefore, rotationAfter)
+        if (fraction >= 0f)
+            Quaternion.nlerp(orientation, rotationBefore, rotationAfter, fraction)
+        thermistor.sampleAt(t, thermistorValue, false)
+        oximeter.sampleAt(t, oximeterValues, false)
+        pleth.summarizeOver(t, periodNanos, plethMean, plethMin, plethMax, plethLast)
+        if (held)
+            heldCount++
+        rowCount++
+        nextNanos += periodNanos
+        return t
+    }
+
+    // True while a source has not reached the output time yet but may still be on its way.
+    private fun isWaiting(channel: TimedChannel, newest: Long): Boolean {
+        val channelNewest = channel.newestTimestamp
+        return channelNewest != Long.MIN_VALUE && channelNewest < nextNanos && newest - channelNewest < timeoutNanos
+    }
+
+    // True when a source that has delivered before is behind the output time.
+    private fun isHeld(channel: TimedChannel): Boolean {
+        val channelNewest = channel.newestTimestamp
+        return channelNewest != Long.MIN_VALUE && channelNewest < nextNanos
+    }
+
+    fun droppedCount(): Long {
+        return accelerometer.droppedCount + magnetometer.droppedCount + rotation.droppedCount + thermistor.droppedCount +
+                oximeter.droppedCount + pleth.droppedCount
+    }
+}
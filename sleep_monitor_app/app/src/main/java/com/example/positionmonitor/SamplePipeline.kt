@@ -0,0 +1,98 @@
+package com.example.positionmonitor
+
+// Turns one fused row of sensor values into the recorded channels: the running means and
+// projections, the streaming Butterworth filters, breath detection and apnea classification.
+// Plain JVM code so it can be tested off the device; process() reuses its buffers and does not
+// allocate.
+//
+// Window sizes are in samples at the nominal 0.19 s period and are scaled for the output period so
+// they keep covering the same time. Filter cutoffs match the offline analysis in
+// analyze_breathing_data.py (normalized 0.1 and 0.3 for the stomach signal, 0.15 for airflow) at
+// the nominal sensor rate, and stay at the same frequency at other rates.
+class SamplePipeline(outputPeriodUs: Int) {
+    companion object {
+        const val NOMINAL_PERIOD_US = 190000
+        // Rows dropped at the start while the acceleration mean settles.
+        const val INITIALIZATION_SIZE = 20
+        private const val MEAN_MAX_SIZE = 75
+        private const val NOMINAL_RATE_HZ = 1 / 0.19
+    }
+
+    val rateHz = 1.0e6 / outputPeriodUs
+
+    private val scale = NOMINAL_PERIOD_US.toFloat() / outputPeriodUs
+    private val windowSize = Math.round(MEAN_MAX_SIZE * scale)
+    private val meanAcceleration = MeanVector(Math.round(30 * scale))
+    private val meanPositionDiff = MeanLine(windowSize)
+    private val meanOrientation = MeanVector(windowSize)
+    private val meanOrientationDiff = MeanLine(windowSize)
+    private val meanThermistor = MeanValue(windowSize)
+
+    private val positionLowPass = Butterworth.lowPass(3, 0.1 * NOMINAL_RATE_HZ / 2, rateHz)
+    private val positionHighPass = Butterworth.highPass(3, 0.3 * NOMINAL_RATE_HZ / 2, rateHz)
+    private val orientationLowPass = Butterworth.lowPass(3, 0.1 * NOMINAL_RATE_HZ / 2, rateHz)
+    private val thermistorLowPass = Butterworth.lowPass(3, 0.15 * NOMINAL_RATE_HZ / 2, rateHz)
+    val breathDetector = BreathDetector()
+    val apneaClassifier = ApneaClassifier(rateHz.toFloat())
+
+    private val orientationDiff = floatArrayOf(0f, 0f, 0f, 1f)
+    private val acceleration = floatArrayOf(0f, 0f, 0f, 1f)
+    private var accelerationInitCount = 0
+
+    var projectionPosition = 0f
+        private set
+    var projectionOrientation = 0f
+        private set
+    var thermistorDiff = 0f
+        private set
+
+    // Fills entry with the RecordingSchema row channels for the row at timestampNanos. Returns false,
+    // leaving entry untouched, for the rows of the initialization period.
+    fun process(timestampNanos: Long, orientationAngles: FloatArray, accelerationVector: FloatArray,
+                thermistorValue: Float, oximeterValues: FloatArray, plethMean: Float, entry: FloatArray): Boolean {
+        meanOrientation.addValue(orientationAngles)
+        vecSubtract(orientationDiff, orientationAngles, meanOrientation.mean())
+        meanOrientationDiff.addValue(orientationDiff)
+        projectionOrientation = vecProjectionToScalar(orientationDiff, meanOrientationDiff.mean())
+
+        meanThermistor.addValue(thermistorValue)
+        thermistorDiff = thermistorValue - meanThermistor.mean()
+
+        // Vectors in a fixed reference frame where:
+        // X is tangential to the ground at the device's current location and roughly points East
+        // Y is tangential to the ground and points towards the magnetic North Pole
+        // Z points towards the sky and is perpendicular to the ground.
+        meanAcceleration.addValue(accelerationVector)
+        vecSubtract(acceleration, accelerationVector, meanAcceleration.mean())
+
+        if (accelerationInitCount < INITIALIZATION_SIZE) {
+            accelerationInitCount++
+            return false
+        }
+
+        // I tried double integrating acceleration to track position, but I wasn't able to get good values.
+        // Acceleration produces a better periodic signal of breathing.
+        meanPositionDiff.addValue(acceleration)
+        projectionPosition = vecProjectionToScalar(acceleration, meanPositionDiff.mean())
+
+        entry[0] = projectionPosition
+        entry[1] = projectionOrientation
+        entry[2] = orientationAngles[0]
+        entry[3] = orientationAngles[1]
+        entry[4] = orientationAngles[2]
+        entry[5] = thermistorDiff
+        entry[6] = oximeterValues[0]
+        entry[7] = oximeterValues[1]
+        entry[8] = oximeterValues[2]
+        entry[9] = plethMean
+        entry[10] = positionLowPass.process(projectionPosition)
+        entry[11] = positionHighPass.process(projectionPosition)
+        entry[12] = orientationLowPass.process(projectionOrientation)
+        entry[13] = thermistorLowPass.process(thermistorDiff)
+        breathDetector.process(timestampNanos, entry[10])
+        entry[14] = breathDetector.rate
+        entry[15] = thermistorValue
+        apneaClassifier.process(timestampNanos, entry[10], entry[13])
+        return true
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.positionmonitor
+
+import java.util.concurrent.locks.LockSupport
+
+// Single-producer/single-consumer ring of raw sensor samples (type, event.timestamp, up to 4 values;
+// missing values read as 0).
+//
+// The sensor callback only copies into preallocated slots and publishes the tail; the consumer
+// thread drains it. When the ring is full the new sample is dropped and counted, so the sensor
+// delivery thread never waits on processing or disk. A parked consumer is woken on publish.
+class SensorRing(private val capacity: Int) {
+    companion object {
+        const val WIDTH = 4
+    }
+
+    private val types = IntArray(capacity)
+    private val timestamps = LongArray(capacity)
+    private val values = FloatArray(capacity * WIDTH)
+
+    // Sequence numbers: head is written by the consumer only, tail by the producer only.
+    @Volatile private var head = 0L
+    @Volatile private var tail = 0L
+    @Volatile private var consumer: Thread? = null
+    @Volatile private var consumerParked = false
+
+    @Volatile var droppedCount = 0L
+        private set
+    // Highest depth seen at publish time.
+    @Volatile var maxDepth = 0
+        private set
+
+    fun depth(): Int {
+        return (tail - head).toInt()
+    }
+
+    // Producer side.
+    fun add(type: Int, timestamp: Long, sample: FloatArray) {
+        val position = tail
+        val depth = (position - head).toInt()
+        if (depth == capacity) {
+            droppedCount++
+            return
+        }
+        val slot = (position % capacity).toInt()
+        types[slot] = type
+        timestamps[slot] = timestamp
+        val count = Math.min(sample.size, WIDTH)
+        System.arraycopy(sample, 0, values, slot * WIDTH, count)
+        for (idx in count until WIDTH)
+            values[slot * WIDTH + idx] = 0f
+        tail = position + 1
+        if (depth + 1 > maxDepth)
+            maxDepth = depth + 1
+        if (consumerParked)
+            LockSupport.unpark(consumer)
+    }
+
+    // Consumer side: slot of the oldest sample, or -1 when the ring is empty. The slot stays valid
+    // until release().
+    fun peekSlot(): Int {
+        val position = head
+        if (position == tail)
+            return -1
+        return (position % capacity).toInt()
+    }
+
+    fun typeAt(slot: Int): Int {
+        return types[slot]
+    }
+
+    fun timestampAt(slot: Int): Long {
+        return timestamps[slot]
+    }
+
+    fun copyValues(slot: Int, dst: FloatArray) {
+        System.arraycopy(values, slot * WIDTH, dst, 0, WIDTH)
+    }
+
+    fun release() {
+        head += 1
+    }
+
+    // Consumer side: parks the calling thread until a sample is published or the timeout passes.
+    fun await(timeoutNanos: Long) {
+        consumer = Thread.currentThread()
+        consumerParked = true
+        if (head == tail)
+            LockSupport.parkNanos(this, timeoutNanos)
+        consumerParked = false
+    }
+}
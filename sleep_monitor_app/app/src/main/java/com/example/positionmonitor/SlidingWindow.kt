@@ -0,0 +1,138 @@
+package com.example.positionmonitor
+
+// Statistics over the last `capacity` samples of a stream, backed by a primitive ring.
+// Every operation is O(1) (amortized for min/max) and nothing is allocated after construction.
+// Sums are taken relative to a reference value and Kahan-compensated, so the mean and variance
+// do not drift over a night of adding and removing samples.
+class SlidingWindow(val capacity: Int) {
+    private val values = FloatArray(capacity)
+    private var count = 0
+    // Sequence number of the next sample; sample n lives at values[n % capacity].
+    private var sequence = 0L
+
+    private var reference = 0.0
+    private var sum = 0.0
+    private var sumCompensation = 0.0
+    private var sumSquares = 0.0
+    private var sumSquaresCompensation = 0.0
+
+    // Monotonic deques of sequence numbers: values decreasing for max, increasing for min.
+    private val maxDeque = LongArray(capacity)
+    private var maxFirst = 0
+    private var maxSize = 0
+    private val minDeque = LongArray(capacity)
+    private var minFirst = 0
+    private var minSize = 0
+
+    fun add(value: Float) {
+        if (count == 0)
+            reference = value.toDouble()
+        val slot = (sequence % capacity).toInt()
+        if (count == capacity) {
+            removeFromSums(values[slot])
+        } else {
+            count++
+        }
+        values[slot] = value
+        addToSums(value)
+        updateExtremes(value)
+        sequence++
+    }
+
+    fun count(): Int {
+        return count
+    }
+
+    fun isFull(): Boolean {
+        return count == capacity
+    }
+
+    fun mean(): Float {
+        if (count == 0)
+            return 0f
+        return (reference + sum / count).toFloat()
+    }
+
+    // Population variance of the samples in the window.
+    fun variance(): Float {
+        if (count == 0)
+            return 0f
+        val meanOffset = sum / count
+        val variance = sumSquares / count - meanOffset * meanOffset
+        return if (variance > 0.0) variance.toFloat() else 0f
+    }
+
+    fun min(): Float {
+        return if (minSize == 0) 0f else valueAt(minDeque[minFirst])
+    }
+
+    fun max(): Float {
+        return if (maxSize == 0) 0f else valueAt(maxDeque[maxFirst])
+    }
+
+    // Most recently added sample.
+    fun last(): Float {
+        return if (count == 0) 0f else valueAt(sequence - 1)
+    }
+
+    fun clear() {
+        count = 0
+        sum = 0.0
+        sumCompensation = 0.0
+        sumSquares = 0.0
+        sumSquaresCompensation = 0.0
+        maxSize = 0
+        minSize = 0
+    }
+
+    private fun valueAt(seq: Long): Float {
+        return values[(seq % capacity).toInt()]
+    }
+
+    private fun addToSums(value: Float) {
+        val offset = value - reference
+        kahanSum(offset)
+        kahanSumSquares(offset * offset)
+    }
+
+    private fun removeFromSums(value: Float) {
+        val offset = value - reference
+        kahanSum(-offset)
+        kahanSumSquares(-offset * offset)
+    }
+
+    private fun kahanSum(term: Double) {
+        val y = term - sumCompensation
+        val t = sum + y
+        sumCompensation = (t - sum) - y
+        sum = t
+    }
+
+    private fun kahanSumSquares(term: Double) {
+        val y = term - sumSquaresCompensation
+        val t = sumSquares + y
+        sumSquaresCompensation = (t - sumSquares) - y
+        sumSquares = t
+    }
+
+    private fun updateExtremes(value: Float) {
+        val oldest = sequence - capacity
+        if (maxSize > 0 && maxDeque[maxFirst] <= oldest) {
+            maxFirst = (maxFirst + 1) % capacity
+            maxSize--
+        }
+        while (maxSize > 0 && valueAt(maxDeque[(maxFirst + maxSize - 1) % capacity]) <= value)
+            maxSize--
+        maxDeque[(maxFirst + maxSize) % capacity] = sequence
+        maxSize++
+
+        if (minSize > 0 && minDeque[minFirst] <= oldest) {
+            minFirst = (minFirst + 1) % capacity
+            minSize--
+        }
+        while (minSize > 0 && valueAt(minDeque[(minFirst + minSize - 1) % capacity]) >= value)
+            minSize--
+        minDeque[(minFirst + minSize) % capacity] = sequence
+        minSize++
+    }
+}
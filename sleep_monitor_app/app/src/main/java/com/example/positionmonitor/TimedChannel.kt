@@ -0,0 +1,162 @@
+package com.example.positionmonitor
+
+// Short buffer of timestamped samples from one source, read back at arbitrary output times.
+//
+// Single-producer/single-consumer: the source thread adds samples in timestamp order, the fusion
+// thread reads them. Output times only move forward, so the consumer keeps a cursor on the last
+// sample at or before the current output time and everything older is released; each sample is
+// passed over once. A full buffer drops the new sample and counts it. A channel is read either with
+// sampleAt() or with summarizeOver(), not both.
+class TimedChannel(private val capacity: Int, val width: Int) {
+    private val timestamps = LongArray(capacity)
+    private val values = FloatArray(capacity * width)
+    private val sum = FloatArray(width)
+    private val minimum = FloatArray(width)
+    private val maximum = FloatArray(width)
+
+    // Sequence numbers: head (the cursor) is written by the consumer only, tail by the producer only.
+    @Volatile private var head = 0L
+    @Volatile private var tail = 0L
+
+    @Volatile var droppedCount = 0L
+        private set
+    // Timestamp of the newest sample ever added, or Long.MIN_VALUE before the first.
+    @Volatile var newestTimestamp = Long.MIN_VALUE
+        private set
+
+    fun isEmpty(): Boolean {
+        return head == tail
+    }
+
+    fun depth(): Int {
+        return (tail - head).toInt()
+    }
+
+    // Producer side.
+    fun add(timestamp: Long, sample: FloatArray) {
+        val position = tail
+        if (position - head == capacity.toLong()) {
+            droppedCount++
+            return
+        }
+        val slot = (position % capacity).toInt()
+        timestamps[slot] = timestamp
+        System.arraycopy(sample, 0, values, slot * width, width)
+        tail = position + 1
+        newestTimestamp = timestamp
+    }
+
+    // Consumer side: moves the cursor to the last sample at or before t, keeping it.
+    fun advanceTo(t: Long) {
+        var position = head
+        val end = tail
+        while (position + 1 < end && timestamps[((position + 1) % capacity).toInt()] <= t)
+            position++
+        head = position
+    }
+
+    // Timestamp at the cursor, or Long.MIN_VALUE when empty.
+    fun cursorTimestamp(): Long {
+        val position = head
+        if (position == tail)
+            return Long.MIN_VALUE
+        return timestamps[(position % capacity).toInt()]
+    }
+
+    // Timestamp of the sample after the cursor, or Long.MAX_VALUE if there is none yet.
+    fun followingTimestamp(): Long {
+        val position = head + 1
+        if (position >= tail)
+            return Long.MAX_VALUE
+        return timestamps[(position % capacity).toInt()]
+    }
+
+    // Consumer side: writes the value at t into dst, interpolated linearly between the samples
+    // around t or held from the last sample at or before it. Before the first sample the first is
+    // used. Returns false, leaving dst unchanged, when there is no sample at all.
+    fun sampleAt(t: Long, dst: FloatArray, interpolate: Boolean): Boolean {
+        advanceTo(t)
+        val position = head
+        if (position == tail)
+            return false
+        val slot = (position % capacity).toInt()
+        val before = timestamps[slot]
+        val after = followingTimestamp()
+        if (!interpolate || before >= t || after == Long.MAX_VALUE) {
+            System.arraycopy(values, slot * width, dst, 0, width)
+            return true
+        }
+        val next = ((position + 1) % capacity).toInt()
+        val fraction = (t - before).toFloat() / (after - before).toFloat()
+        for (idx in 0 until width) {
+            val start = values[slot * width + idx]
+            dst[idx] = start + (values[next * width + idx] - start) * fraction
+        }
+        return true
+    }
+
+    // Consumer side: copies the samples around t into before and after and returns the fraction of
+    // the way from one to the other, for values that cannot be interpolated component-wise.
+    // Both get the same sample when there is none after t. Returns -1 when there is no sample.
+    fun bracket(t: Long, before: FloatArray, after: FloatArray): Float {
+        advanceTo(t)
+        val position = head
+        if (position == tail)
+            return -1f
+        val slot = (position % capacity).toInt()
+        val beforeTimestamp = timestamps[slot]
+        val afterTimestamp = followingTimestamp()
+        System.arraycopy(values, slot * width, before, 0, width)
+        if (beforeTimestamp >= t || afterTimestamp == Long.MAX_VALUE) {
+            System.arraycopy(values, slot * width, after, 0, width)
+            return 0f
+        }
+        System.arraycopy(values, ((position + 1) % capacity).toInt() * width, after, 0, width)
+        return (t - beforeTimestamp).toFloat() / (afterTimestamp - beforeTimestamp).toFloat()
+    }
+
+    // Consumer side, for channels read only this way: writes the mean, minimum, maximum and last of
+    // the samples in (t - interval, t] into the destination arrays and releases every sample up to
+    // t. Returns false, leaving them unchanged, when there are none.
+    fun summarizeOver(t: Long, interval: Long, mean: FloatArray, min: FloatArray, max: FloatArray,
+                      last: FloatArray): Boolean {
+        var position = head
+        val end = tail
+        var count = 0
+        var lastSlot = 0
+        for (idx in 0 until width) {
+            sum[idx] = 0f
+            minimum[idx] = Float.POSITIVE_INFINITY
+            maximum[idx] = Float.NEGATIVE_INFINITY
+        }
+        while (position < end) {
+            val slot = (position % capacity).toInt()
+            val timestamp = timestamps[slot]
+            if (timestamp > t)
+                break
+            if (timestamp > t - interval) {
+                for (idx in 0 until width) {
+                    val value = values[slot * width + idx]
+                    sum[idx] += value
+                    if (value < minimum[idx])
+                        minimum[idx] = value
+                    if (value > maximum[idx])
+                        maximum[idx] = value
+                }
+                lastSlot = slot
+                count++
+            }
+            position++
+        }
+        head = position
+        if (count == 0)
+            return false
+        for (idx in 0 until width) {
+            mean[idx] = sum[idx] / count
+            min[idx] = minimum[idx]
+            max[idx] = maximum[idx]
+        }
+        System.arraycopy(values, lastSlot * width, last, 0, width)
+        return true
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.positionmonitor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ApneaClassifierTest {
+    private val rateHz = 5f
+    private val secondNanos = 1000000000L
+
+    private class Events : ApneaClassifier.Listener {
+        val types = ArrayList<Int>()
+        val nadirs = ArrayList<Long>()
+        val drops = ArrayList<Int>()
+        var endNanos = 0L
+
+        override fun onApnea(startNanos: Long, endNanos: Long, type: Int, correlation: Float,
+                             desaturationNadirNanos: Long, desaturationDrop: Int) {
+            types.add(type)
+            nadirs.add(desaturationNadirNanos)
+            drops.add(desaturationDrop)
+            this.endNanos = endNanos
+        }
+    }
+
+    // Breathing at 15 per minute; the airflow stops between 100 and 130 s while the effort goes on.
+    private fun process(classifier: ApneaClassifier, sample: Int) {
+        val seconds = sample / rateHz.toDouble()
+        val breath = Math.sin(2 * Math.PI * 0.25 * seconds).toFloat()
+        val airflow = if (seconds >= 100 && seconds < 130) 0f else breath
+        classifier.process(secondNanos + (sample * secondNanos / rateHz.toLong()), breath, airflow)
+    }
+
+    @Test
+    fun linksDesaturationReportedAfterTheLinkWindow() {
+        val classifier = ApneaClassifier(rateHz)
+        val events = Events()
+        classifier.listener = events
+        val nadirNanos = secondNanos + 150 * secondNanos
+        for (sample in 0 until (600 * rateHz).toInt()) {
+            // The desaturation bottoms out 20 s after breathing resumes, but only recovers at 230 s,
+            // more than 60 s after the apnea ended.
+            if (sample == (230 * rateHz).toInt())
+                classifier.onDesaturation(secondNanos + 120 * secondNanos, nadirNanos, secondNanos + 230 * secondNanos, 960, 910)
+            process(classifier, sample)
+        }
+        assertEquals(listOf(ApneaClassifier.OBSTRUCTIVE), events.types)
+        assertEquals(listOf(nadirNanos), events.nadirs)
+        assertEquals(listOf(50), events.drops)
+        assertEquals(1, classifier.obstructiveCount)
+        assertEquals(1, classifier.linkedCount)
+    }
+
+    @Test
+    fun ignoresDesaturationAfterTheLinkWindow() {
+        val classifier = ApneaClassifier(rateHz)
+        val events = Events()
+        classifier.listener = events
+        for (sample in 0 until (600 * rateHz).toInt()) {
+            if (sample == (300 * rateHz).toInt())
+                classifier.onDesaturation(secondNanos + 250 * secondNanos, secondNanos + 260 * secondNanos,
+                        secondNanos + 300 * secondNanos, 960, 910)
+            process(classifier, sample)
+        }
+        assertEquals(listOf(0L), events.nadirs)
+        assertEquals(0, classifier.linkedCount)
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.positionmonitor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class SamplePipelineTest {
+    private val periodUs = SamplePipeline.NOMINAL_PERIOD_US
+    private val orientation = floatArrayOf(0f, 0f, 0f, 1f)
+    private val acceleration = floatArrayOf(0f, 0f, 0f, 1f)
+    private val oximeter = floatArrayOf(97f, 62f, 5f)
+    private val entry = FloatArray(RecordingSchema.rowChannelCount)
+
+    // Lying on the back and breathing at 15 breaths per minute, with the thermistor following the airflow.
+    private fun processRow(pipeline: SamplePipeline, row: Int): Boolean {
+        val seconds = row * periodUs / 1.0e6
+        val breath = Math.sin(2 * Math.PI * 0.25 * seconds)
+        // The stomach moves along a tilted axis, mostly along z.
+        acceleration[0] = (0.3 + 0.01 * breath).toFloat()
+        acceleration[1] = (0.5 + 0.025 * breath).toFloat()
+        acceleration[2] = (9.8 + 0.05 * breath).toFloat()
+        orientation[0] = 0.3f
+        orientation[1] = (0.01 * breath).toFloat()
+        orientation[2] = 0.02f
+        val thermistor = (2000 + 40 * breath).toFloat()
+        return pipeline.process(row * periodUs * 1000L, orientation, acceleration, thermistor, oximeter, 50f, entry)
+    }
+
+    @Test
+    fun skipsInitializationRows() {
+        val pipeline = SamplePipeline(periodUs)
+        for (row in 0 until SamplePipeline.INITIALIZATION_SIZE)
+            assertFalse(processRow(pipeline, row))
+        assertTrue(processRow(pipeline, SamplePipeline.INITIALIZATION_SIZE))
+        assertEquals(0.3f, entry[2], 0f)
+        assertEquals(97f, entry[6], 0f)
+        assertEquals(62f, entry[7], 0f)
+        assertEquals(5f, entry[8], 0f)
+        assertEquals(50f, entry[9], 0f)
+    }
+
+    @Test
+    fun detectsBreathingRate() {
+        val pipeline = SamplePipeline(periodUs)
+        for (row in 0 until 2000)
+            processRow(pipeline, row)
+        assertEquals(15f, pipeline.breathDetector.rate, 1f)
+        assertEquals(15f, entry[14], 1f)
+    }
+
+    @Test
+    fun processDoesNotAllocate() {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        assertTrue(threads.isThreadAllocatedMemorySupported)
+        threads.isThreadAllocatedMemoryEnabled = true
+        val thread = Thread.currentThread().id
+        val pipeline = SamplePipeline(periodUs)
+        // Warm up past the initialization rows and until the JIT has compiled the per-row path.
+        for (row in 0 until 50000)
+            processRow(pipeline, row)
+        // The probe itself may allocate; measure it with nothing in between and subtract.
+        val probe = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread)
+        val before = threads.getThreadAllocatedBytes(thread)
+        for (row in 50000 until 60000)
+            processRow(pipeline, row)
+        val allocated = threads.getThreadAllocatedBytes(thread) - before - probe
+        assertEquals(0L, allocated)
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.positionmonitor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class TimedChannelTest {
+    private val mean = FloatArray(1)
+    private val min = FloatArray(1)
+    private val max = FloatArray(1)
+    private val last = FloatArray(1)
+
+    @Test
+    fun summarizesSamplesOfThePeriod() {
+        val channel = TimedChannel(16, 1)
+        val sample = FloatArray(1)
+        for ((idx, value) in floatArrayOf(5f, 9f, 1f, 4f, 7f).withIndex()) {
+            sample[0] = value
+            channel.add(10L * (idx + 1), sample)
+        }
+        // (10, 40] holds 9, 1 and 4; the sample at 10 is outside and released with them.
+        assertTrue(channel.summarizeOver(40L, 30L, mean, min, max, last))
+        assertEquals(14f / 3f, mean[0], 1e-6f)
+        assertEquals(1f, min[0], 0f)
+        assertEquals(9f, max[0], 0f)
+        assertEquals(4f, last[0], 0f)
+        assertEquals(1, channel.depth())
+        // Nothing new in (40, 45]: the previous summary is kept.
+        assertFalse(channel.summarizeOver(45L, 5L, mean, min, max, last))
+        assertEquals(4f, last[0], 0f)
+        assertTrue(channel.summarizeOver(50L, 10L, mean, min, max, last))
+        assertEquals(7f, mean[0], 0f)
+        assertEquals(7f, min[0], 0f)
+        assertEquals(7f, max[0], 0f)
+        assertEquals(7f, last[0], 0f)
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.positionmonitor.recording;
+
+/** Name, unit, storage type and column codec of one channel of a stream. */
+public final class ChannelInfo {
+    private final String mName;
+    private final String mUnit;
+    private final int mType;
+    private final int mCodec;
+
+    public ChannelInfo(String name, String unit, int type) {
+        this(name, unit, type, RecordingFormat.CODEC_RAW);
+    }
+
+    /* codec applies to columnar chunks; row chunks always store the type as is. */
+    public ChannelInfo(String name, String unit, int type, int codec) {
+        RecordingFormat.typeSize(type);
+        if (!RecordingFormat.isCodecSupported(codec, type)) {
+            throw new IllegalArgumentException("Codec " + RecordingFormat.codecName(codec) + " does not support " + RecordingFormat.typeName(type));
+        }
+        this.mName = name;
+        this.mUnit = unit;
+        this.mType = type;
+        this.mCodec = codec;
+    }
+
+    public String getName() {
+        return this.mName;
+    }
+
+    public String getUnit() {
+        return this.mUnit;
+    }
+
+    /* One of the RecordingFormat.TYPE_ constants. */
+    public int getType() {
+        return this.mType;
+    }
+
+    /* One of the RecordingFormat.CODEC_ constants. */
+    public int getCodec() {
+        return this.mCodec;
+    }
+
+    public int getSize() {
+        return RecordingFormat.typeSize(this.mType);
+    }
+
+    public String toString() {
+        return this.mName + " [" + this.mUnit + ", " + RecordingFormat.typeName(this.mType) + ", " + RecordingFormat.codecName(this.mCodec) + "]";
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.positionmonitor.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the payload of one chunk at a time, record by record, for {@link RecordingFileReader}
+ * and {@link RecordCursor}. The column decoders of every stream are created on first use and
+ * reused for all its chunks.
+ */
+final class ChunkDecoder {
+    private final ColumnDecoder[][] mDecoders = new ColumnDecoder[256][];
+    private final double[] mValues;
+    private StreamInfo mStream = null;
+    private int mEncoding = RecordingFormat.ENCODING_ROWS;
+    private ByteBuffer mPayload = null;
+    private int mRemaining = 0;
+    private long mTimestamp = 0;
+
+    ChunkDecoder(RecordingHeader header) {
+        int maxChannels = 0;
+        for (int i = 0; i < header.getStreamCount(); i++) {
+            maxChannels = Math.max(maxChannels, header.getStreamAt(i).getChannelCount());
+        }
+        this.mValues = new double[maxChannels];
+    }
+
+    /* Starts on a chunk whose payload is payload from its position to its limit. */
+    void reset(StreamInfo stream, int encoding, int count, ByteBuffer payload) throws IOException {
+        this.mStream = stream;
+        this.mEncoding = encoding;
+        this.mPayload = payload;
+        this.mRemaining = count;
+        if (encoding == RecordingFormat.ENCODING_ROWS) {
+            if (((long) count) * ((long) (stream.getValuesSize() + 8)) > ((long) payload.remaining())) {
+                throw new IOException("Chunk of " + count + " records is too short");
+            }
+        } else if (encoding == RecordingFormat.ENCODING_COLUMNS) {
+            ColumnDecoder[] decoders = decodersOf(stream);
+            int position = payload.position();
+            for (ColumnDecoder decoder : decoders) {
+                if (payload.limit() - position < 4) {
+                    throw new IOException("Chunk of stream " + stream.getName() + " is missing columns");
+                }
+                int length = payload.getInt(position);
+                decoder.reset(payload, position + 4);
+                position += length + 4;
+            }
+            if (position > payload.limit()) {
+                throw new IOException("Columns exceed the chunk of stream " + stream.getName());
+            }
+        } else {
+            throw new IOException("Unknown chunk encoding " + encoding);
+        }
+    }
+
+    private ColumnDecoder[] decodersOf(StreamInfo stream) {
+        ColumnDecoder[] decoders = this.mDecoders[stream.getId()];
+        if (decoders == null) {
+            decoders = new ColumnDecoder[stream.getChannelCount() + 1];
+            decoders[0] = ColumnDecoder.forTimestamps();
+            for (int i = 0; i < stream.getChannelCount(); i++) {
+                decoders[i + 1] = ColumnDecoder.forChannel(stream.getChannel(i));
+            }
+            this.mDecoders[stream.getId()] = decoders;
+        }
+        return decoders;
+    }
+
+    /* Decodes the next record of the chunk; false after the last. */
+    boolean next() {
+        if (this.mRemaining == 0) {
+            return false;
+        }
+        this.mRemaining--;
+        StreamInfo stream = this.mStream;
+        int channelCount = stream.getChannelCount();
+        if (this.mEncoding == RecordingFormat.ENCODING_ROWS) {
+            this.mTimestamp = this.mPayload.getLong();
+            for (int i = 0; i < channelCount; i++) {
+                this.mValues[i] = RecordingFileReader.getValue(this.mPayload, stream.getChannel(i).getType());
+            }
+        } else {
+            ColumnDecoder[] decoders = this.mDecoders[stream.getId()];
+            this.mTimestamp = decoders[0].nextLong();
+            for (int i = 0; i < channelCount; i++) {
+                this.mValues[i] = decoders[i + 1].nextDouble();
+            }
+        }
+        return true;
+    }
+
+    StreamInfo getStream() {
+        return this.mStream;
+    }
+
+    long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    double getValue(int channel) {
+        return this.mValues[channel];
+    }
+}
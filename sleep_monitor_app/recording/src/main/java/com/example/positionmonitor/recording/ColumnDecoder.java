@@ -0,0 +1,232 @@
+package com.example.positionmonitor.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming decoder of one column of a columnar chunk, the counterpart of {@link ColumnEncoder}.
+ * It reads with absolute gets from the chunk buffer, so the decoders of all columns of a chunk
+ * share one buffer, and it keeps no per-chunk allocations: {@link #reset} points it at the next
+ * column.
+ */
+public abstract class ColumnDecoder {
+    ByteBuffer mBuffer;
+    int mPosition;
+
+    /* Decoder of the timestamp column. */
+    public static ColumnDecoder forTimestamps() {
+        return new DeltaOfDelta();
+    }
+
+    /* Decoder of a channel column with the channel's codec. */
+    public static ColumnDecoder forChannel(ChannelInfo channel) {
+        switch (channel.getCodec()) {
+            case RecordingFormat.CODEC_RAW:
+                return new Raw(channel.getType());
+            case RecordingFormat.CODEC_GORILLA:
+                return new Gorilla(channel.getType() == RecordingFormat.TYPE_FLOAT64 ? 64 : 32);
+            case RecordingFormat.CODEC_RLE:
+                return new RunLength();
+            case RecordingFormat.CODEC_DELTA_VARINT:
+                return new DeltaVarint();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + channel.getCodec());
+        }
+    }
+
+    /* Starts decoding the column at offset in buffer. */
+    public void reset(ByteBuffer buffer, int offset) {
+        this.mBuffer = buffer;
+        this.mPosition = offset;
+    }
+
+    public abstract double nextDouble();
+
+    public abstract long nextLong();
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ (-(value & 1));
+    }
+
+    long readVarint() {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = this.mBuffer.get(this.mPosition);
+            this.mPosition++;
+            value |= ((long) (b & 127)) << shift;
+            if ((b & 128) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    static final class Raw extends ColumnDecoder {
+        private final int mType;
+
+        Raw(int type) {
+            this.mType = type;
+        }
+
+        public double nextDouble() {
+            int position = this.mPosition;
+            this.mPosition += RecordingFormat.typeSize(this.mType);
+            switch (this.mType) {
+                case RecordingFormat.TYPE_INT8:
+                    return (double) this.mBuffer.get(position);
+                case RecordingFormat.TYPE_INT16:
+                    return (double) this.mBuffer.getShort(position);
+                case RecordingFormat.TYPE_INT32:
+                    return (double) this.mBuffer.getInt(position);
+                case RecordingFormat.TYPE_INT64:
+                    return (double) this.mBuffer.getLong(position);
+                case RecordingFormat.TYPE_FLOAT32:
+                    return (double) this.mBuffer.getFloat(position);
+                default:
+                    return this.mBuffer.getDouble(position);
+            }
+        }
+
+        public long nextLong() {
+            if (this.mType == RecordingFormat.TYPE_INT64) {
+                long value = this.mBuffer.getLong(this.mPosition);
+                this.mPosition += 8;
+                return value;
+            }
+            return (long) nextDouble();
+        }
+    }
+
+    static final class DeltaOfDelta extends ColumnDecoder {
+        private long mPrevious;
+        private long mPreviousDelta;
+        private boolean mFirst;
+
+        public void reset(ByteBuffer buffer, int offset) {
+            super.reset(buffer, offset);
+            this.mPrevious = 0;
+            this.mPreviousDelta = 0;
+            this.mFirst = true;
+        }
+
+        public double nextDouble() {
+            return (double) nextLong();
+        }
+
+        public long nextLong() {
+            long delta = unzigzag(readVarint()) + this.mPreviousDelta;
+            this.mPrevious += delta;
+            this.mPreviousDelta = this.mFirst ? 0 : delta;
+            this.mFirst = false;
+            return this.mPrevious;
+        }
+    }
+
+    static final class DeltaVarint extends ColumnDecoder {
+        private long mPrevious;
+
+        public void reset(ByteBuffer buffer, int offset) {
+            super.reset(buffer, offset);
+            this.mPrevious = 0;
+        }
+
+        public double nextDouble() {
+            return (double) nextLong();
+        }
+
+        public long nextLong() {
+            this.mPrevious += unzigzag(readVarint());
+            return this.mPrevious;
+        }
+    }
+
+    static final class RunLength extends ColumnDecoder {
+        private long mValue;
+        private long mLeft;
+
+        public void reset(ByteBuffer buffer, int offset) {
+            super.reset(buffer, offset);
+            this.mValue = 0;
+            this.mLeft = 0;
+        }
+
+        public double nextDouble() {
+            return (double) nextLong();
+        }
+
+        public long nextLong() {
+            if (this.mLeft == 0) {
+                this.mLeft = readVarint();
+                this.mValue += unzigzag(readVarint());
+            }
+            this.mLeft--;
+            return this.mValue;
+        }
+    }
+
+    static final class Gorilla extends ColumnDecoder {
+        private final int mWidth;
+        private final int mFieldBits;
+        private long mPrevious;
+        private int mLeading;
+        private int mTrailing;
+        private boolean mFirst;
+        /* Current byte and how many of its bits are still unread. */
+        private int mByte;
+        private int mBitsLeft;
+
+        Gorilla(int width) {
+            this.mWidth = width;
+            this.mFieldBits = width == 64 ? 6 : 5;
+        }
+
+        public void reset(ByteBuffer buffer, int offset) {
+            super.reset(buffer, offset);
+            this.mPrevious = 0;
+            this.mLeading = 0;
+            this.mTrailing = 0;
+            this.mFirst = true;
+            this.mBitsLeft = 0;
+        }
+
+        public double nextDouble() {
+            if (this.mFirst) {
+                this.mPrevious = readBits(this.mWidth);
+                this.mFirst = false;
+            } else if (readBits(1) != 0) {
+                if (readBits(1) != 0) {
+                    this.mLeading = (int) readBits(this.mFieldBits);
+                    int meaningful = ((int) readBits(this.mFieldBits)) + 1;
+                    this.mTrailing = (this.mWidth - this.mLeading) - meaningful;
+                }
+                int meaningful = (this.mWidth - this.mLeading) - this.mTrailing;
+                this.mPrevious ^= readBits(meaningful) << this.mTrailing;
+            }
+            if (this.mWidth == 32) {
+                return (double) Float.intBitsToFloat((int) this.mPrevious);
+            }
+            return Double.longBitsToDouble(this.mPrevious);
+        }
+
+        public long nextLong() {
+            return Math.round(nextDouble());
+        }
+
+        private long readBits(int count) {
+            long value = 0;
+            int left = count;
+            while (left > 0) {
+                if (this.mBitsLeft == 0) {
+                    this.mByte = this.mBuffer.get(this.mPosition) & 255;
+                    this.mPosition++;
+                    this.mBitsLeft = 8;
+                }
+                int n = Math.min(this.mBitsLeft, left);
+                value = (value << n) | ((long) ((this.mByte >>> (this.mBitsLeft - n)) & ((1 << n) - 1)));
+                this.mBitsLeft -= n;
+                left -= n;
+            }
+            return value;
+        }
+    }
+}
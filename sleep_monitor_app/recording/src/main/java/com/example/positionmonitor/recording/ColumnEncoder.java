@@ -0,0 +1,320 @@
+package com.example.positionmonitor.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming encoder of one column of a columnar chunk, see {@link RecordingFormat} for the
+ * codecs. Values are encoded as they are added into a buffer allocated once; {@link #finish()}
+ * completes the column and {@link #reset()} starts the next chunk. Integer channels are narrowed
+ * to their type like in row chunks.
+ */
+public abstract class ColumnEncoder {
+    /* Bytes one value and finish() (a partial byte, a varint) can take at most. */
+    static final int MAX_VALUE_SIZE = 24;
+    /* A run: varint length of an int and varint zigzag delta of a long. */
+    static final int MAX_RUN_SIZE = 15;
+    final ByteBuffer mBuffer;
+    private final int mMaxValueSize;
+
+    ColumnEncoder(int capacity) {
+        this(capacity, MAX_VALUE_SIZE);
+    }
+
+    ColumnEncoder(int capacity, int maxValueSize) {
+        this.mBuffer = ByteBuffer.allocate(Math.max(capacity, maxValueSize * 2));
+        this.mMaxValueSize = maxValueSize;
+    }
+
+    /* Encoder of the timestamp column. */
+    public static ColumnEncoder forTimestamps(int capacity) {
+        return new DeltaOfDelta(capacity);
+    }
+
+    /* Encoder of a channel column with the channel's codec. */
+    public static ColumnEncoder forChannel(ChannelInfo channel, int capacity) {
+        switch (channel.getCodec()) {
+            case RecordingFormat.CODEC_RAW:
+                return new Raw(capacity, channel.getType());
+            case RecordingFormat.CODEC_GORILLA:
+                return new Gorilla(capacity, channel.getType() == RecordingFormat.TYPE_FLOAT64 ? 64 : 32);
+            case RecordingFormat.CODEC_RLE:
+                return new RunLength(capacity, channel.getType());
+            case RecordingFormat.CODEC_DELTA_VARINT:
+                return new DeltaVarint(capacity, channel.getType());
+            default:
+                throw new IllegalArgumentException("Unknown codec " + channel.getCodec());
+        }
+    }
+
+    public abstract void add(double value);
+
+    public abstract void addLong(long value);
+
+    /* Writes what is still pending; the encoded column is then getBuffer() up to its position. */
+    public void finish() {
+    }
+
+    public void reset() {
+        this.mBuffer.clear();
+    }
+
+    /* Whether one more value and finish() are guaranteed to fit. */
+    public boolean hasRoom() {
+        return this.mBuffer.remaining() >= this.mMaxValueSize;
+    }
+
+    public ByteBuffer getBuffer() {
+        return this.mBuffer;
+    }
+
+    static long narrow(int type, long value) {
+        switch (type) {
+            case RecordingFormat.TYPE_INT8:
+                return (long) ((byte) value);
+            case RecordingFormat.TYPE_INT16:
+                return (long) ((short) value);
+            case RecordingFormat.TYPE_INT32:
+                return (long) ((int) value);
+            default:
+                return value;
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        long rest = value;
+        while ((rest & -128) != 0) {
+            buffer.put((byte) ((rest & 127) | 128));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    static final class Raw extends ColumnEncoder {
+        private final int mType;
+
+        Raw(int capacity, int type) {
+            super(capacity);
+            this.mType = type;
+        }
+
+        public void add(double value) {
+            if (this.mType == RecordingFormat.TYPE_FLOAT64) {
+                this.mBuffer.putDouble(value);
+            } else if (this.mType == RecordingFormat.TYPE_FLOAT32) {
+                this.mBuffer.putFloat((float) value);
+            } else {
+                addLong(Math.round(value));
+            }
+        }
+
+        public void addLong(long value) {
+            switch (this.mType) {
+                case RecordingFormat.TYPE_INT8:
+                    this.mBuffer.put((byte) value);
+                    return;
+                case RecordingFormat.TYPE_INT16:
+                    this.mBuffer.putShort((short) value);
+                    return;
+                case RecordingFormat.TYPE_INT32:
+                    this.mBuffer.putInt((int) value);
+                    return;
+                case RecordingFormat.TYPE_INT64:
+                    this.mBuffer.putLong(value);
+                    return;
+                default:
+                    add((double) value);
+            }
+        }
+    }
+
+    static final class DeltaOfDelta extends ColumnEncoder {
+        private long mPrevious = 0;
+        private long mPreviousDelta = 0;
+        private boolean mFirst = true;
+
+        DeltaOfDelta(int capacity) {
+            super(capacity);
+        }
+
+        public void add(double value) {
+            addLong(Math.round(value));
+        }
+
+        public void addLong(long value) {
+            long delta = value - this.mPrevious;
+            putVarint(this.mBuffer, zigzag(delta - this.mPreviousDelta));
+            this.mPreviousDelta = this.mFirst ? 0 : delta;
+            this.mPrevious = value;
+            this.mFirst = false;
+        }
+
+        public void reset() {
+            super.reset();
+            this.mPrevious = 0;
+            this.mPreviousDelta = 0;
+            this.mFirst = true;
+        }
+    }
+
+    static final class DeltaVarint extends ColumnEncoder {
+        private final int mType;
+        private long mPrevious = 0;
+
+        DeltaVarint(int capacity, int type) {
+            super(capacity);
+            this.mType = type;
+        }
+
+        public void add(double value) {
+            addLong(Math.round(value));
+        }
+
+        public void addLong(long value) {
+            long narrowed = narrow(this.mType, value);
+            putVarint(this.mBuffer, zigzag(narrowed - this.mPrevious));
+            this.mPrevious = narrowed;
+        }
+
+        public void reset() {
+            super.reset();
+            this.mPrevious = 0;
+        }
+    }
+
+    static final class RunLength extends ColumnEncoder {
+        private final int mType;
+        private long mPreviousRun = 0;
+        private long mValue = 0;
+        private int mLength = 0;
+
+        /* A value can flush the pending run, and finish() then writes the run it started. */
+        RunLength(int capacity, int type) {
+            super(capacity, MAX_RUN_SIZE * 2);
+            this.mType = type;
+        }
+
+        public void add(double value) {
+            addLong(Math.round(value));
+        }
+
+        public void addLong(long value) {
+            long narrowed = narrow(this.mType, value);
+            if (this.mLength > 0 && narrowed == this.mValue) {
+                this.mLength++;
+                return;
+            }
+            finish();
+            this.mValue = narrowed;
+            this.mLength = 1;
+        }
+
+        public void finish() {
+            if (this.mLength > 0) {
+                putVarint(this.mBuffer, (long) this.mLength);
+                putVarint(this.mBuffer, zigzag(this.mValue - this.mPreviousRun));
+                this.mPreviousRun = this.mValue;
+                this.mLength = 0;
+            }
+        }
+
+        public void reset() {
+            super.reset();
+            this.mPreviousRun = 0;
+            this.mLength = 0;
+        }
+    }
+
+    static final class Gorilla extends ColumnEncoder {
+        private final int mWidth;
+        private final int mFieldBits;
+        private long mPrevious = 0;
+        private int mLeading = -1;
+        private int mTrailing = 0;
+        private boolean mFirst = true;
+        /* Bits not yet written, most significant first. */
+        private int mPending = 0;
+        private int mPendingCount = 0;
+
+        Gorilla(int capacity, int width) {
+            super(capacity);
+            this.mWidth = width;
+            this.mFieldBits = width == 64 ? 6 : 5;
+        }
+
+        public void add(double value) {
+            long bits;
+            if (this.mWidth == 32) {
+                bits = ((long) Float.floatToRawIntBits((float) value)) & 0xFFFFFFFFL;
+            } else {
+                bits = Double.doubleToRawLongBits(value);
+            }
+            if (this.mFirst) {
+                writeBits(bits, this.mWidth);
+                this.mFirst = false;
+            } else {
+                long xor = bits ^ this.mPrevious;
+                if (xor == 0) {
+                    writeBits(0, 1);
+                } else {
+                    int leading = Long.numberOfLeadingZeros(xor) - (64 - this.mWidth);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (this.mLeading >= 0 && leading >= this.mLeading && trailing >= this.mTrailing) {
+                        writeBits(2, 2);
+                        writeBits(xor >>> this.mTrailing, (this.mWidth - this.mLeading) - this.mTrailing);
+                    } else {
+                        int meaningful = (this.mWidth - leading) - trailing;
+                        writeBits(3, 2);
+                        writeBits((long) leading, this.mFieldBits);
+                        writeBits((long) (meaningful - 1), this.mFieldBits);
+                        writeBits(xor >>> trailing, meaningful);
+                        this.mLeading = leading;
+                        this.mTrailing = trailing;
+                    }
+                }
+            }
+            this.mPrevious = bits;
+        }
+
+        public void addLong(long value) {
+            add((double) value);
+        }
+
+        private void writeBits(long value, int count) {
+            int left = count;
+            while (left > 0) {
+                int n = Math.min(8 - this.mPendingCount, left);
+                int bits = (int) ((value >>> (left - n)) & ((1L << n) - 1));
+                this.mPending = (this.mPending << n) | bits;
+                this.mPendingCount += n;
+                left -= n;
+                if (this.mPendingCount == 8) {
+                    this.mBuffer.put((byte) this.mPending);
+                    this.mPending = 0;
+                    this.mPendingCount = 0;
+                }
+            }
+        }
+
+        public void finish() {
+            if (this.mPendingCount > 0) {
+                this.mBuffer.put((byte) (this.mPending << (8 - this.mPendingCount)));
+                this.mPending = 0;
+                this.mPendingCount = 0;
+            }
+        }
+
+        public void reset() {
+            super.reset();
+            this.mPrevious = 0;
+            this.mLeading = -1;
+            this.mTrailing = 0;
+            this.mFirst = true;
+            this.mPending = 0;
+            this.mPendingCount = 0;
+        }
+    }
+}
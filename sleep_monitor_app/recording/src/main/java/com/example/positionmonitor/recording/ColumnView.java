@@ -0,0 +1,87 @@
+package com.example.positionmonitor.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of one column of a recording as a sequence of segments: each segment is a run of
+ * values at a fixed stride in a buffer, either the memory-mapped file itself or values decoded
+ * from a compressed column. Random access finds the segment by binary search over the cumulative
+ * record counts; sequential access stays in the segment of the previous call, so iterating over
+ * a column costs O(1) per value.
+ *
+ * The segment cache makes a view single-threaded; {@link RecordingReader} hands out a new view
+ * per call for other threads.
+ */
+public abstract class ColumnView {
+    final int[] mStarts;
+    final ByteBuffer[] mBuffers;
+    final int[] mOffsets;
+    final int[] mStrides;
+    final int[] mTypes;
+    final int mSegmentCount;
+    private int mSegment = 0;
+
+    /* starts has one more entry than the other arrays: the total size. */
+    ColumnView(int[] starts, ByteBuffer[] buffers, int[] offsets, int[] strides, int[] types) {
+        this.mStarts = starts;
+        this.mBuffers = buffers;
+        this.mOffsets = offsets;
+        this.mStrides = strides;
+        this.mTypes = types;
+        this.mSegmentCount = buffers.length;
+    }
+
+    public int size() {
+        return this.mStarts[this.mSegmentCount];
+    }
+
+    /* Segment holding index. */
+    final int segmentOf(int index) {
+        if (index < 0 || index >= this.mStarts[this.mSegmentCount]) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+        }
+        int segment = this.mSegment;
+        if (index >= this.mStarts[segment] && index < this.mStarts[segment + 1]) {
+            return segment;
+        }
+        if (segment + 1 < this.mSegmentCount && index >= this.mStarts[segment + 1] && index < this.mStarts[segment + 2]) {
+            this.mSegment = segment + 1;
+            return segment + 1;
+        }
+        int low = 0;
+        int high = this.mSegmentCount - 1;
+        while (low < high) {
+            int mid = ((low + high) + 1) >>> 1;
+            if (this.mStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        this.mSegment = low;
+        return low;
+    }
+
+    final int positionOf(int segment, int index) {
+        return this.mOffsets[segment] + ((index - this.mStarts[segment]) * this.mStrides[segment]);
+    }
+
+    static double getDouble(ByteBuffer buffer, int position, int type) {
+        switch (type) {
+            case RecordingFormat.TYPE_INT8:
+                return (double) buffer.get(position);
+            case RecordingFormat.TYPE_INT16:
+                return (double) buffer.getShort(position);
+            case RecordingFormat.TYPE_INT32:
+                return (double) buffer.getInt(position);
+            case RecordingFormat.TYPE_INT64:
+                return (double) buffer.getLong(position);
+            case RecordingFormat.TYPE_FLOAT32:
+                return (double) buffer.getFloat(position);
+            case RecordingFormat.TYPE_FLOAT64:
+                return buffer.getDouble(position);
+            default:
+                throw new IllegalArgumentException("Unknown channel type " + type);
+        }
+    }
+}
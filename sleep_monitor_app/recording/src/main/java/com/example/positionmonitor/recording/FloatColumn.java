@@ -0,0 +1,33 @@
+package com.example.positionmonitor.recording;
+
+import java.nio.ByteBuffer;
+
+/** Values of one channel, like a read-only FloatBuffer indexed by record; integer types convert. */
+public final class FloatColumn extends ColumnView {
+
+    FloatColumn(int[] starts, ByteBuffer[] buffers, int[] offsets, int[] strides, int[] types) {
+        super(starts, buffers, offsets, strides, types);
+    }
+
+    public float get(int index) {
+        int segment = segmentOf(index);
+        ByteBuffer buffer = this.mBuffers[segment];
+        int position = positionOf(segment, index);
+        if (this.mTypes[segment] == RecordingFormat.TYPE_FLOAT32) {
+            return buffer.getFloat(position);
+        }
+        return (float) getDouble(buffer, position, this.mTypes[segment]);
+    }
+
+    public double getDouble(int index) {
+        int segment = segmentOf(index);
+        return getDouble(this.mBuffers[segment], positionOf(segment, index), this.mTypes[segment]);
+    }
+
+    /* Copies length values starting at from into dst at offset. */
+    public void get(int from, float[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = get(from + i);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.positionmonitor.recording;
+
+import java.nio.ByteBuffer;
+
+/** Timestamps of a stream, like a read-only LongBuffer indexed by record. */
+public final class LongColumn extends ColumnView {
+
+    LongColumn(int[] starts, ByteBuffer[] buffers, int[] offsets, int[] strides) {
+        super(starts, buffers, offsets, strides, null);
+    }
+
+    public long get(int index) {
+        int segment = segmentOf(index);
+        return this.mBuffers[segment].getLong(positionOf(segment, index));
+    }
+
+    /* Copies length values starting at from into dst at offset. */
+    public void get(int from, long[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = get(from + i);
+        }
+    }
+
+    /* Index of the first record at or after timestamp, or size() if there is none. */
+    public int search(long timestamp) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.positionmonitor.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records of one stream in a time window of a {@link RecordingFile}. The overlapping chunks are
+ * read one at a time into a reused buffer and decoded record by record, like
+ * {@link RecordingFileReader#next()}; records of the first chunk before the window are decoded
+ * and passed over.
+ */
+public class RecordCursor {
+    private final RecordingFile mFile;
+    private final RecordingIndex mIndex;
+    private final StreamInfo mStream;
+    private final long mFromNanos;
+    private final long mToNanos;
+    private final int mChunkCount;
+    private final ChunkDecoder mDecoder;
+    private final ByteBuffer mChunkHeader = ByteBuffer.allocate(RecordingFormat.CHUNK_HEADER_SIZE);
+    private ByteBuffer mChunk = ByteBuffer.allocate(0);
+    /* Position among the stream's chunks of the next chunk to read. */
+    private int mNextChunk;
+    private long mTimestamp = 0;
+    private boolean mDone = false;
+
+    RecordCursor(RecordingFile file, StreamInfo stream, long fromNanos, long toNanos) {
+        this.mFile = file;
+        this.mIndex = file.getIndex();
+        this.mStream = stream;
+        this.mFromNanos = fromNanos;
+        this.mToNanos = toNanos;
+        this.mChunkCount = this.mIndex.getChunkCount(stream.getId());
+        this.mDecoder = new ChunkDecoder(file.getHeader());
+        this.mNextChunk = this.mIndex.findChunk(stream.getId(), fromNanos);
+    }
+
+    public StreamInfo getStream() {
+        return this.mStream;
+    }
+
+    /* Advances to the next record in the window; false after the last. */
+    public boolean next() throws IOException {
+        while (!this.mDone) {
+            while (!this.mDecoder.next()) {
+                if (!nextChunk()) {
+                    this.mDone = true;
+                    return false;
+                }
+            }
+            long timestamp = this.mDecoder.getTimestamp();
+            if (timestamp > this.mToNanos) {
+                this.mDone = true;
+                return false;
+            }
+            if (timestamp >= this.mFromNanos) {
+                this.mTimestamp = timestamp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (this.mNextChunk >= this.mChunkCount) {
+            return false;
+        }
+        int entry = this.mIndex.getChunk(this.mStream.getId(), this.mNextChunk);
+        this.mNextChunk++;
+        if (this.mIndex.getFirstTimestamp(entry) > this.mToNanos) {
+            return false;
+        }
+        ByteBuffer header = this.mChunkHeader;
+        header.clear();
+        long offset = this.mIndex.getOffset(entry);
+        RecordingIndex.readFully(this.mFile.getChannel(), header, offset);
+        if (header.getInt() != RecordingFormat.CHUNK_MAGIC) {
+            throw new IOException("No chunk at offset " + offset);
+        }
+        header.get();
+        int encoding = header.get() & 255;
+        int count = header.getInt();
+        header.position(header.position() + 16);
+        int length = header.getInt();
+        if (this.mChunk.capacity() < length) {
+            this.mChunk = ByteBuffer.allocate(length);
+        }
+        this.mChunk.clear();
+        this.mChunk.limit(length);
+        RecordingIndex.readFully(this.mFile.getChannel(), this.mChunk, offset + RecordingFormat.CHUNK_HEADER_SIZE);
+        this.mDecoder.reset(this.mStream, encoding, count, this.mChunk);
+        return true;
+    }
+
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    public double getValue(int channel) {
+        return this.mDecoder.getValue(channel);
+    }
+
+    /* Copies the current record's values into dst, one per channel. */
+    public void readValues(float[] dst) {
+        for (int i = 0; i < this.mStream.getChannelCount(); i++) {
+            dst[i] = (float) this.mDecoder.getValue(i);
+        }
+    }
+}
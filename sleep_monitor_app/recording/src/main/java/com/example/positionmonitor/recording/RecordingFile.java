@@ -0,0 +1,90 @@
+package com.example.positionmonitor.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to a version 2 .rec file through its {@link RecordingIndex}. {@link #query}
+ * finds the first chunk of a time window by binary search and reads only the chunks that overlap
+ * it, so fetching a window costs O(log n) plus its size, wherever it lies in the night.
+ *
+ * Positional reads do not move a shared file position, so several cursors may be open at once;
+ * each cursor is used by one thread.
+ */
+public class RecordingFile {
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final RecordingHeader mHeader;
+    private final long mDataOffset;
+    private final RecordingIndex mIndex;
+
+    public RecordingFile(File file) throws IOException {
+        this.mFile = new RandomAccessFile(file, "r");
+        this.mChannel = this.mFile.getChannel();
+        try {
+            ByteBuffer prefix = ByteBuffer.allocate(10);
+            RecordingIndex.readFully(this.mChannel, prefix, 0);
+            if (prefix.getInt() != RecordingFormat.MAGIC) {
+                throw new IOException("Not a recording file");
+            }
+            int version = prefix.getShort() & 0xFFFF;
+            int length = prefix.getInt();
+            if (version < 2) {
+                throw new IOException("Version " + version + " recordings have no chunk index");
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            RecordingIndex.readFully(this.mChannel, body, 10);
+            this.mHeader = RecordingHeader.parseBody(version, body.array());
+            this.mDataOffset = 10 + ((long) length);
+            this.mIndex = RecordingIndex.read(this.mChannel, this.mDataOffset);
+        } catch (IOException e) {
+            this.mFile.close();
+            throw e;
+        }
+    }
+
+    public RecordingHeader getHeader() {
+        return this.mHeader;
+    }
+
+    public RecordingIndex getIndex() {
+        return this.mIndex;
+    }
+
+    FileChannel getChannel() {
+        return this.mChannel;
+    }
+
+    /* First timestamp of a stream, or Long.MAX_VALUE when it has no records. */
+    public long getFirstTimestamp(int streamId) {
+        if (this.mIndex.getChunkCount(streamId) == 0) {
+            return Long.MAX_VALUE;
+        }
+        return this.mIndex.getFirstTimestamp(this.mIndex.getChunk(streamId, 0));
+    }
+
+    /* Last timestamp of a stream, or Long.MIN_VALUE when it has no records. */
+    public long getLastTimestamp(int streamId) {
+        int count = this.mIndex.getChunkCount(streamId);
+        if (count == 0) {
+            return Long.MIN_VALUE;
+        }
+        return this.mIndex.getLastTimestamp(this.mIndex.getChunk(streamId, count - 1));
+    }
+
+    /* Records of a stream with fromNanos <= timestamp <= toNanos, in timestamp order. */
+    public RecordCursor query(int streamId, long fromNanos, long toNanos) {
+        StreamInfo stream = this.mHeader.getStream(streamId);
+        if (stream == null) {
+            throw new IllegalArgumentException("Unknown stream " + streamId);
+        }
+        return new RecordCursor(this, stream, fromNanos, toNanos);
+    }
+
+    public void close() throws IOException {
+        this.mFile.close();
+    }
+}
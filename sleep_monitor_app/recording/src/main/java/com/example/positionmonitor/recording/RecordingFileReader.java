@@ -0,0 +1,166 @@
+package com.example.positionmonitor.recording;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming reader for .rec files. {@link #next()} decodes one record at a time into reused
+ * buffers, so reading a night does not allocate per record. Records come in file order, which
+ * from version 2 on is chunk by chunk, each read whole and then decoded; {@link RecordingFile}
+ * reads a time window without the rest. A truncated last record or chunk ends the stream like the
+ * end of the file.
+ */
+public class RecordingFileReader {
+    private final DataInputStream mIn;
+    private final RecordingHeader mHeader;
+    private final byte[] mRecordBytes;
+    private final ByteBuffer mRecord;
+    private final double[] mValues;
+    private final boolean mChunked;
+    private final ChunkDecoder mDecoder;
+    private byte[] mChunkBytes = new byte[0];
+    private ByteBuffer mChunk = ByteBuffer.wrap(this.mChunkBytes);
+    private StreamInfo mStream = null;
+    private long mTimestamp = 0;
+
+    public RecordingFileReader(InputStream in) throws IOException {
+        this.mIn = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        this.mHeader = RecordingHeader.read(this.mIn);
+        int maxSize = 0;
+        int maxChannels = 0;
+        for (int i = 0; i < this.mHeader.getStreamCount(); i++) {
+            StreamInfo stream = this.mHeader.getStreamAt(i);
+            maxSize = Math.max(maxSize, stream.getValuesSize());
+            maxChannels = Math.max(maxChannels, stream.getChannelCount());
+        }
+        this.mRecordBytes = new byte[maxSize + 8];
+        this.mRecord = ByteBuffer.wrap(this.mRecordBytes);
+        this.mValues = new double[maxChannels];
+        this.mChunked = this.mHeader.getVersion() >= 2;
+        this.mDecoder = new ChunkDecoder(this.mHeader);
+    }
+
+    public RecordingHeader getHeader() {
+        return this.mHeader;
+    }
+
+    /* Advances to the next record; false at the end of the file. */
+    public boolean next() throws IOException {
+        if (this.mChunked) {
+            try {
+                while (!this.mDecoder.next()) {
+                    if (!nextChunk()) {
+                        return false;
+                    }
+                }
+            } catch (EOFException e) {
+                return false;
+            }
+            StreamInfo stream = this.mDecoder.getStream();
+            this.mStream = stream;
+            this.mTimestamp = this.mDecoder.getTimestamp();
+            for (int i = 0; i < stream.getChannelCount(); i++) {
+                this.mValues[i] = this.mDecoder.getValue(i);
+            }
+            return true;
+        }
+        int id = this.mIn.read();
+        if (id < 0) {
+            return false;
+        }
+        StreamInfo stream = streamOf(id);
+        try {
+            this.mIn.readFully(this.mRecordBytes, 0, stream.getValuesSize() + 8);
+        } catch (EOFException e) {
+            return false;
+        }
+        this.mRecord.clear();
+        this.mStream = stream;
+        this.mTimestamp = this.mRecord.getLong();
+        for (int i = 0; i < stream.getChannelCount(); i++) {
+            this.mValues[i] = getValue(this.mRecord, stream.getChannel(i).getType());
+        }
+        return true;
+    }
+
+    /* Reads the next chunk; false at the index or the end of the file. */
+    private boolean nextChunk() throws IOException {
+        if (this.mIn.readInt() != RecordingFormat.CHUNK_MAGIC) {
+            return false;
+        }
+        int id = this.mIn.readUnsignedByte();
+        int encoding = this.mIn.readUnsignedByte();
+        int count = this.mIn.readInt();
+        this.mIn.readLong();
+        this.mIn.readLong();
+        int length = this.mIn.readInt();
+        if (length < 0) {
+            throw new IOException("Chunk of negative length");
+        }
+        if (this.mChunkBytes.length < length) {
+            this.mChunkBytes = new byte[length];
+            this.mChunk = ByteBuffer.wrap(this.mChunkBytes);
+        }
+        this.mIn.readFully(this.mChunkBytes, 0, length);
+        this.mChunk.clear();
+        this.mChunk.limit(length);
+        this.mDecoder.reset(streamOf(id), encoding, count, this.mChunk);
+        return true;
+    }
+
+    private StreamInfo streamOf(int id) throws IOException {
+        StreamInfo stream = this.mHeader.getStream(id);
+        if (stream == null) {
+            throw new IOException("Record of unknown stream " + id);
+        }
+        return stream;
+    }
+
+    static double getValue(ByteBuffer buffer, int type) {
+        switch (type) {
+            case RecordingFormat.TYPE_INT8:
+                return (double) buffer.get();
+            case RecordingFormat.TYPE_INT16:
+                return (double) buffer.getShort();
+            case RecordingFormat.TYPE_INT32:
+                return (double) buffer.getInt();
+            case RecordingFormat.TYPE_INT64:
+                return (double) buffer.getLong();
+            case RecordingFormat.TYPE_FLOAT32:
+                return (double) buffer.getFloat();
+            case RecordingFormat.TYPE_FLOAT64:
+                return buffer.getDouble();
+            default:
+                throw new IllegalArgumentException("Unknown channel type " + type);
+        }
+    }
+
+    /* Stream of the current record. */
+    public StreamInfo getStream() {
+        return this.mStream;
+    }
+
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    public double getValue(int channel) {
+        return this.mValues[channel];
+    }
+
+    /* Copies the current record's values into dst, one per channel. */
+    public void readValues(float[] dst) {
+        int count = this.mStream.getChannelCount();
+        for (int i = 0; i < count; i++) {
+            dst[i] = (float) this.mValues[i];
+        }
+    }
+
+    public void close() throws IOException {
+        this.mIn.close();
+    }
+}
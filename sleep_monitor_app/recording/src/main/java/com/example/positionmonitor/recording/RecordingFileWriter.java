@@ -0,0 +1,225 @@
+package com.example.positionmonitor.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a .rec file: the header, then chunks of records through a {@link RecordingWriter} so
+ * the group-commit and sync policy apply to whole chunks. Each stream collects its records in its
+ * own buffers until the chunk spans {@code chunkNanos} or a buffer is full; close() writes the
+ * open chunks, then the {@link RecordingIndex} footer.
+ *
+ * With {@link RecordingFormat#ENCODING_ROWS} records are stored as the channel types of their
+ * stream. With {@link RecordingFormat#ENCODING_COLUMNS} every record is encoded into one
+ * {@link ColumnEncoder} per field as it is added, with the channel codecs of the header; the
+ * buffers are allocated up front, so appending does not allocate either way.
+ *
+ * Records reach the file only when their chunk is complete, so a crash loses the open chunk of
+ * every stream (at most {@code chunkNanos}) plus one commit interval.
+ *
+ * writeRecord() and close() are synchronized, so streams may be fed from different threads, e.g.
+ * the oximeter parser next to the sensor processing. Records written after close() are dropped.
+ */
+public class RecordingFileWriter {
+    public static final long DEFAULT_CHUNK_NANOS = 10000000000L;
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+    private final RecordingWriter mWriter;
+    private final RecordingHeader mHeader;
+    private final long mChunkNanos;
+    private final int mEncoding;
+    private final RecordingIndex mIndex = new RecordingIndex();
+    private final ByteBuffer mChunkHeader = ByteBuffer.allocate(RecordingFormat.CHUNK_HEADER_SIZE);
+    private final ByteBuffer[] mChunks = new ByteBuffer[256];
+    /* Timestamp encoder, then one per channel, of each stream in columnar mode. */
+    private final ColumnEncoder[][] mColumns = new ColumnEncoder[256][];
+    private final int[] mChunkCounts = new int[256];
+    private final long[] mChunkFirst = new long[256];
+    private final long[] mChunkLast = new long[256];
+    private boolean mClosed = false;
+
+    public RecordingFileWriter(RecordingWriter writer, RecordingHeader header) throws IOException {
+        this(writer, header, RecordingFormat.ENCODING_ROWS);
+    }
+
+    public RecordingFileWriter(RecordingWriter writer, RecordingHeader header, int encoding) throws IOException {
+        this(writer, header, encoding, DEFAULT_CHUNK_NANOS, DEFAULT_CHUNK_BYTES);
+    }
+
+    /* A chunk holds at most chunkNanos of one stream and at most about chunkBytes of records. */
+    public RecordingFileWriter(RecordingWriter writer, RecordingHeader header, int encoding, long chunkNanos, int chunkBytes) throws IOException {
+        if (encoding != RecordingFormat.ENCODING_ROWS && encoding != RecordingFormat.ENCODING_COLUMNS) {
+            throw new IllegalArgumentException("Unknown chunk encoding " + encoding);
+        }
+        if (encoding == RecordingFormat.ENCODING_COLUMNS && header.getVersion() < 3) {
+            throw new IllegalArgumentException("Columnar chunks need a version 3 header");
+        }
+        this.mWriter = writer;
+        this.mHeader = header;
+        this.mEncoding = encoding;
+        this.mChunkNanos = chunkNanos;
+        for (int i = 0; i < header.getStreamCount(); i++) {
+            StreamInfo stream = header.getStreamAt(i);
+            if (encoding == RecordingFormat.ENCODING_ROWS) {
+                this.mChunks[stream.getId()] = ByteBuffer.allocate(Math.max(chunkBytes, stream.getValuesSize() + 8));
+            } else {
+                int capacity = chunkBytes / (stream.getChannelCount() + 1);
+                ColumnEncoder[] columns = new ColumnEncoder[stream.getChannelCount() + 1];
+                columns[0] = ColumnEncoder.forTimestamps(capacity);
+                for (int c = 0; c < stream.getChannelCount(); c++) {
+                    columns[c + 1] = ColumnEncoder.forChannel(stream.getChannel(c), capacity);
+                }
+                this.mColumns[stream.getId()] = columns;
+            }
+        }
+        header.write(writer);
+    }
+
+    public RecordingHeader getHeader() {
+        return this.mHeader;
+    }
+
+    public RecordingWriter getWriter() {
+        return this.mWriter;
+    }
+
+    /* Chunks written so far. */
+    public RecordingIndex getIndex() {
+        return this.mIndex;
+    }
+
+    /* Appends one record; integer channels are rounded. values must have one entry per channel. */
+    public synchronized void writeRecord(int streamId, long timestamp, float[] values) throws IOException {
+        if (this.mClosed) {
+            return;
+        }
+        StreamInfo stream = this.mHeader.getStream(streamId);
+        if (stream == null) {
+            throw new IllegalArgumentException("Unknown stream " + streamId);
+        }
+        int channelCount = stream.getChannelCount();
+        if (values.length < channelCount) {
+            throw new IllegalArgumentException("Stream " + stream.getName() + " has " + channelCount + " channels");
+        }
+        int id = stream.getId();
+        int count = this.mChunkCounts[id];
+        if (count > 0 && (timestamp - this.mChunkFirst[id] >= this.mChunkNanos || !hasRoom(stream))) {
+            writeChunk(id);
+            count = 0;
+        }
+        if (count == 0) {
+            this.mChunkFirst[id] = timestamp;
+        }
+        if (this.mEncoding == RecordingFormat.ENCODING_ROWS) {
+            ByteBuffer chunk = this.mChunks[id];
+            chunk.putLong(timestamp);
+            for (int i = 0; i < channelCount; i++) {
+                putValue(chunk, stream.getChannel(i).getType(), values[i]);
+            }
+        } else {
+            ColumnEncoder[] columns = this.mColumns[id];
+            columns[0].addLong(timestamp);
+            for (int i = 0; i < channelCount; i++) {
+                columns[i + 1].add((double) values[i]);
+            }
+        }
+        this.mChunkLast[id] = timestamp;
+        this.mChunkCounts[id] = count + 1;
+        this.mWriter.onRowEnd();
+    }
+
+    private boolean hasRoom(StreamInfo stream) {
+        if (this.mEncoding == RecordingFormat.ENCODING_ROWS) {
+            return this.mChunks[stream.getId()].remaining() >= stream.getValuesSize() + 8;
+        }
+        for (ColumnEncoder column : this.mColumns[stream.getId()]) {
+            if (!column.hasRoom()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeChunk(int id) throws IOException {
+        int length;
+        if (this.mEncoding == RecordingFormat.ENCODING_ROWS) {
+            this.mChunks[id].flip();
+            length = this.mChunks[id].remaining();
+        } else {
+            length = 0;
+            for (ColumnEncoder column : this.mColumns[id]) {
+                column.finish();
+                length += column.getBuffer().position() + 4;
+            }
+        }
+        long offset = this.mWriter.position();
+        ByteBuffer header = this.mChunkHeader;
+        header.clear();
+        header.putInt(RecordingFormat.CHUNK_MAGIC);
+        header.put((byte) id);
+        header.put((byte) this.mEncoding);
+        header.putInt(this.mChunkCounts[id]);
+        header.putLong(this.mChunkFirst[id]);
+        header.putLong(this.mChunkLast[id]);
+        header.putInt(length);
+        header.flip();
+        this.mWriter.write(header);
+        if (this.mEncoding == RecordingFormat.ENCODING_ROWS) {
+            this.mWriter.write(this.mChunks[id]);
+            this.mChunks[id].clear();
+        } else {
+            for (ColumnEncoder column : this.mColumns[id]) {
+                ByteBuffer buffer = column.getBuffer();
+                buffer.flip();
+                this.mWriter.writeInt(buffer.remaining());
+                this.mWriter.write(buffer);
+                column.reset();
+            }
+        }
+        this.mIndex.add(id, this.mChunkFirst[id], this.mChunkLast[id], offset, this.mChunkCounts[id]);
+        this.mChunkCounts[id] = 0;
+    }
+
+    static void putValue(ByteBuffer buffer, int type, float value) {
+        switch (type) {
+            case RecordingFormat.TYPE_INT8:
+                buffer.put((byte) Math.round(value));
+                return;
+            case RecordingFormat.TYPE_INT16:
+                buffer.putShort((short) Math.round(value));
+                return;
+            case RecordingFormat.TYPE_INT32:
+                buffer.putInt(Math.round(value));
+                return;
+            case RecordingFormat.TYPE_INT64:
+                buffer.putLong(Math.round((double) value));
+                return;
+            case RecordingFormat.TYPE_FLOAT32:
+                buffer.putFloat(value);
+                return;
+            case RecordingFormat.TYPE_FLOAT64:
+                buffer.putDouble((double) value);
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown channel type " + type);
+        }
+    }
+
+    /* Writes the open chunks and the index, then closes the writer. */
+    public synchronized void close() throws IOException {
+        if (this.mClosed) {
+            return;
+        }
+        this.mClosed = true;
+        try {
+            for (int i = 0; i < this.mHeader.getStreamCount(); i++) {
+                int id = this.mHeader.getStreamAt(i).getId();
+                if (this.mChunkCounts[id] > 0) {
+                    writeChunk(id);
+                }
+            }
+            this.mIndex.write(this.mWriter);
+        } finally {
+            this.mWriter.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.positionmonitor.recording;
+
+/**
+ * Constants of the self-describing recording container (.rec).
+ *
+ * Everything is big-endian. The file starts with a {@link RecordingHeader}: magic, version, the
+ * clock reference and the schema of every stream. A reader skips header fields it does not know
+ * by the header length.
+ *
+ * Version 1 continues with records of byte stream id, long timestamp in the header's clock, then
+ * one value per channel of that stream, each stored as its channel type.
+ *
+ * Version 2 continues with chunks, each holding the records of one stream over a fixed duration:
+ * int {@link #CHUNK_MAGIC}, byte stream id, byte encoding, int record count, long first and last
+ * timestamp, int payload length, then the payload. With {@link #ENCODING_ROWS} the payload is the
+ * records without the stream id. On close the writer appends a {@link RecordingIndex} of all
+ * chunks and a trailer: long offset of the index, int {@link #TRAILER_MAGIC}. A file without the
+ * trailer (e.g. after a crash) is indexed by walking the chunk headers, up to the first
+ * incomplete chunk.
+ *
+ * Version 3 appends a codec byte per channel to the header and adds {@link #ENCODING_COLUMNS}
+ * chunks. Their payload is one column per field, each an int byte length followed by the encoded
+ * values: first the timestamps as zigzag varints of the delta of deltas, then every channel in
+ * order with its codec:
+ * {@link #CODEC_RAW} values stored as their type, back to back;
+ * {@link #CODEC_GORILLA} XOR of each float with the previous one, bit-packed as in Facebook's
+ * Gorilla (0: same value; 10: meaningful bits within the previous window; 11: 5 bits (6 for
+ * float64) leading zeros, 5 (6) bits meaningful length - 1, then the meaningful bits), the first
+ * value stored whole and the last byte padded with zeros;
+ * {@link #CODEC_RLE} runs of equal integers as a varint run length and the zigzag varint delta
+ * to the value of the previous run;
+ * {@link #CODEC_DELTA_VARINT} the zigzag varint delta of each integer to the previous one.
+ * Deltas start from 0 in every chunk.
+ */
+public final class RecordingFormat {
+    /* "SLMR" */
+    public static final int MAGIC = 0x534C4D52;
+    public static final int VERSION = 3;
+    /* "CHNK" */
+    public static final int CHUNK_MAGIC = 0x43484E4B;
+    /* "INDX" */
+    public static final int INDEX_MAGIC = 0x494E4458;
+    /* "SLMI" */
+    public static final int TRAILER_MAGIC = 0x534C4D49;
+    public static final int CHUNK_HEADER_SIZE = 30;
+    public static final int INDEX_ENTRY_SIZE = 29;
+    public static final int TRAILER_SIZE = 12;
+    public static final int ENCODING_ROWS = 0;
+    public static final int ENCODING_COLUMNS = 1;
+
+    public static final int CODEC_RAW = 0;
+    /* Float channels that change smoothly or rarely. */
+    public static final int CODEC_GORILLA = 1;
+    /* Integer channels that hold a value for many records, e.g. SpO2 and pulse rate. */
+    public static final int CODEC_RLE = 2;
+    /* Integer channels with small steps, e.g. ADC readings. */
+    public static final int CODEC_DELTA_VARINT = 3;
+
+    public static final int TYPE_INT8 = 1;
+    public static final int TYPE_INT16 = 2;
+    public static final int TYPE_INT32 = 3;
+    public static final int TYPE_INT64 = 4;
+    public static final int TYPE_FLOAT32 = 5;
+    public static final int TYPE_FLOAT64 = 6;
+
+    private RecordingFormat() {
+    }
+
+    public static int typeSize(int type) {
+        switch (type) {
+            case TYPE_INT8:
+                return 1;
+            case TYPE_INT16:
+                return 2;
+            case TYPE_INT32:
+            case TYPE_FLOAT32:
+                return 4;
+            case TYPE_INT64:
+            case TYPE_FLOAT64:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown channel type " + type);
+        }
+    }
+
+    public static boolean isFloatType(int type) {
+        return type == TYPE_FLOAT32 || type == TYPE_FLOAT64;
+    }
+
+    /* Whether a channel of this type can use the codec. */
+    public static boolean isCodecSupported(int codec, int type) {
+        switch (codec) {
+            case CODEC_RAW:
+                return true;
+            case CODEC_GORILLA:
+                return isFloatType(type);
+            case CODEC_RLE:
+            case CODEC_DELTA_VARINT:
+                return !isFloatType(type);
+            default:
+                return false;
+        }
+    }
+
+    public static String codecName(int codec) {
+        switch (codec) {
+            case CODEC_RAW:
+                return "raw";
+            case CODEC_GORILLA:
+                return "gorilla";
+            case CODEC_RLE:
+                return "rle";
+            case CODEC_DELTA_VARINT:
+                return "delta-varint";
+            default:
+                return "unknown";
+        }
+    }
+
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_INT8:
+                return "int8";
+            case TYPE_INT16:
+                return "int16";
+            case TYPE_INT32:
+                return "int32";
+            case TYPE_INT64:
+                return "int64";
+            case TYPE_FLOAT32:
+                return "float32";
+            case TYPE_FLOAT64:
+                return "float64";
+            default:
+                return "unknown";
+        }
+    }
+}
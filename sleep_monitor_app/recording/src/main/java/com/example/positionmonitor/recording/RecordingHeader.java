@@ -0,0 +1,179 @@
+package com.example.positionmonitor.recording;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Header of a .rec file: format version, clock reference and stream schema.
+ *
+ * Layout: int magic, short version, int length of the rest of the header, then long unix start
+ * time in ms, long clock reading at that same instant, UTF clock name, short stream count and
+ * per stream: byte id, UTF name, float nominal rate, short channel count and per channel: UTF
+ * name, UTF unit, byte type. Fields added by later versions go after these, so older readers
+ * skip them by the length. Version 3 adds a byte codec per channel of every stream, in order.
+ */
+public final class RecordingHeader {
+    private final int mVersion;
+    private final long mStartUnixMillis;
+    private final long mClockOriginNanos;
+    private final String mClockName;
+    private final StreamInfo[] mStreams;
+    private final StreamInfo[] mStreamsById = new StreamInfo[256];
+
+    /* clockOriginNanos is the reading of the timestamp clock (clockName) at startUnixMillis. */
+    public RecordingHeader(long startUnixMillis, long clockOriginNanos, String clockName, StreamInfo[] streams) {
+        this(RecordingFormat.VERSION, startUnixMillis, clockOriginNanos, clockName, streams);
+    }
+
+    /* Package-private so tests can write files of older versions. */
+    RecordingHeader(int version, long startUnixMillis, long clockOriginNanos, String clockName, StreamInfo[] streams) {
+        this.mVersion = version;
+        this.mStartUnixMillis = startUnixMillis;
+        this.mClockOriginNanos = clockOriginNanos;
+        this.mClockName = clockName;
+        this.mStreams = streams.clone();
+        for (StreamInfo stream : streams) {
+            if (this.mStreamsById[stream.getId()] != null) {
+                throw new IllegalArgumentException("Duplicate stream id " + stream.getId());
+            }
+            this.mStreamsById[stream.getId()] = stream;
+        }
+    }
+
+    public int getVersion() {
+        return this.mVersion;
+    }
+
+    public long getStartUnixMillis() {
+        return this.mStartUnixMillis;
+    }
+
+    public long getClockOriginNanos() {
+        return this.mClockOriginNanos;
+    }
+
+    public String getClockName() {
+        return this.mClockName;
+    }
+
+    public int getStreamCount() {
+        return this.mStreams.length;
+    }
+
+    public StreamInfo getStreamAt(int index) {
+        return this.mStreams[index];
+    }
+
+    /* The stream with this id, or null. */
+    public StreamInfo getStream(int id) {
+        return this.mStreamsById[id & 255];
+    }
+
+    /* The named stream, or null. */
+    public StreamInfo getStream(String name) {
+        for (StreamInfo stream : this.mStreams) {
+            if (stream.getName().equals(name)) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /* Unix time in ms of a record timestamp. */
+    public long toUnixMillis(long timestampNanos) {
+        return this.mStartUnixMillis + ((timestampNanos - this.mClockOriginNanos) / 1000000);
+    }
+
+    public byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeLong(this.mStartUnixMillis);
+            out.writeLong(this.mClockOriginNanos);
+            out.writeUTF(this.mClockName);
+            out.writeShort(this.mStreams.length);
+            for (StreamInfo stream : this.mStreams) {
+                out.writeByte(stream.getId());
+                out.writeUTF(stream.getName());
+                out.writeFloat(stream.getRateHz());
+                out.writeShort(stream.getChannelCount());
+                for (int i = 0; i < stream.getChannelCount(); i++) {
+                    ChannelInfo channel = stream.getChannel(i);
+                    out.writeUTF(channel.getName());
+                    out.writeUTF(channel.getUnit());
+                    out.writeByte(channel.getType());
+                }
+            }
+            if (this.mVersion >= 3) {
+                for (StreamInfo stream : this.mStreams) {
+                    for (int i = 0; i < stream.getChannelCount(); i++) {
+                        out.writeByte(stream.getChannel(i).getCodec());
+                    }
+                }
+            }
+            out.flush();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerOut = new DataOutputStream(header);
+            headerOut.writeInt(RecordingFormat.MAGIC);
+            headerOut.writeShort(this.mVersion);
+            headerOut.writeInt(body.size());
+            body.writeTo(headerOut);
+            headerOut.flush();
+            return header.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void write(RecordingWriter writer) throws IOException {
+        byte[] bytes = toByteArray();
+        writer.reserve(bytes.length).put(bytes);
+    }
+
+    /* Reads a header, leaving the stream at the first record. */
+    public static RecordingHeader read(DataInputStream in) throws IOException {
+        if (in.readInt() != RecordingFormat.MAGIC) {
+            throw new IOException("Not a recording file");
+        }
+        int version = in.readUnsignedShort();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return parseBody(version, bytes);
+    }
+
+    static RecordingHeader parseBody(int version, byte[] bytes) throws IOException {
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+        long startUnixMillis = body.readLong();
+        long clockOriginNanos = body.readLong();
+        String clockName = body.readUTF();
+        StreamInfo[] streams = new StreamInfo[body.readUnsignedShort()];
+        int[] ids = new int[streams.length];
+        String[] names = new String[streams.length];
+        float[] rates = new float[streams.length];
+        ChannelInfo[][] channels = new ChannelInfo[streams.length][];
+        for (int i = 0; i < streams.length; i++) {
+            ids[i] = body.readUnsignedByte();
+            names[i] = body.readUTF();
+            rates[i] = body.readFloat();
+            channels[i] = new ChannelInfo[body.readUnsignedShort()];
+            for (int c = 0; c < channels[i].length; c++) {
+                channels[i][c] = new ChannelInfo(body.readUTF(), body.readUTF(), body.readUnsignedByte());
+            }
+        }
+        if (version >= 3) {
+            for (int i = 0; i < streams.length; i++) {
+                for (int c = 0; c < channels[i].length; c++) {
+                    ChannelInfo channel = channels[i][c];
+                    channels[i][c] = new ChannelInfo(channel.getName(), channel.getUnit(), channel.getType(), body.readUnsignedByte());
+                }
+            }
+        }
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new StreamInfo(ids[i], names[i], rates[i], channels[i]);
+        }
+        return new RecordingHeader(version, startUnixMillis, clockOriginNanos, clockName, streams);
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.positionmonitor.recording;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index of the chunks of a version 2 recording: per chunk the stream id, first and last
+ * timestamp, file offset of the chunk header and record count.
+ *
+ * Stored at the end of the file as int {@link RecordingFormat#INDEX_MAGIC}, int entry count and
+ * per entry byte stream id, long first, long last, long offset, int count. Chunks of one stream
+ * are in timestamp order, so {@link #findChunk} locates a time in O(log n).
+ */
+public final class RecordingIndex {
+    private int mCount = 0;
+    private int[] mStreamIds = new int[64];
+    private long[] mFirstTimestamps = new long[64];
+    private long[] mLastTimestamps = new long[64];
+    private long[] mOffsets = new long[64];
+    private int[] mRecordCounts = new int[64];
+    /* Entry positions per stream id, built lazily for lookups. */
+    private int[][] mByStream = null;
+    private int[] mByStreamCounts = null;
+
+    public void add(int streamId, long firstTimestamp, long lastTimestamp, long offset, int recordCount) {
+        if (this.mCount == this.mOffsets.length) {
+            int capacity = this.mCount * 2;
+            this.mStreamIds = copyOf(this.mStreamIds, capacity);
+            this.mFirstTimestamps = copyOf(this.mFirstTimestamps, capacity);
+            this.mLastTimestamps = copyOf(this.mLastTimestamps, capacity);
+            this.mOffsets = copyOf(this.mOffsets, capacity);
+            this.mRecordCounts = copyOf(this.mRecordCounts, capacity);
+        }
+        this.mStreamIds[this.mCount] = streamId & 255;
+        this.mFirstTimestamps[this.mCount] = firstTimestamp;
+        this.mLastTimestamps[this.mCount] = lastTimestamp;
+        this.mOffsets[this.mCount] = offset;
+        this.mRecordCounts[this.mCount] = recordCount;
+        this.mCount++;
+        this.mByStream = null;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    public int getCount() {
+        return this.mCount;
+    }
+
+    public int getStreamId(int entry) {
+        return this.mStreamIds[entry];
+    }
+
+    public long getFirstTimestamp(int entry) {
+        return this.mFirstTimestamps[entry];
+    }
+
+    public long getLastTimestamp(int entry) {
+        return this.mLastTimestamps[entry];
+    }
+
+    public long getOffset(int entry) {
+        return this.mOffsets[entry];
+    }
+
+    public int getRecordCount(int entry) {
+        return this.mRecordCounts[entry];
+    }
+
+    /* Number of chunks of a stream. */
+    public int getChunkCount(int streamId) {
+        buildStreamLists();
+        return this.mByStreamCounts[streamId & 255];
+    }
+
+    /* Entry of the n-th chunk of a stream. */
+    public int getChunk(int streamId, int n) {
+        buildStreamLists();
+        return this.mByStream[streamId & 255][n];
+    }
+
+    /* Position among the chunks of the stream of the first chunk ending at or after timestamp,
+     * or getChunkCount(streamId) when there is none. */
+    public int findChunk(int streamId, long timestamp) {
+        buildStreamLists();
+        int[] entries = this.mByStream[streamId & 255];
+        int low = 0;
+        int high = this.mByStreamCounts[streamId & 255];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.mLastTimestamps[entries[mid]] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void buildStreamLists() {
+        if (this.mByStream != null) {
+            return;
+        }
+        int[] counts = new int[256];
+        for (int i = 0; i < this.mCount; i++) {
+            counts[this.mStreamIds[i]]++;
+        }
+        int[][] byStream = new int[256][];
+        for (int id = 0; id < 256; id++) {
+            byStream[id] = new int[counts[id]];
+            counts[id] = 0;
+        }
+        for (int i = 0; i < this.mCount; i++) {
+            int id = this.mStreamIds[i];
+            byStream[id][counts[id]] = i;
+            counts[id]++;
+        }
+        this.mByStream = byStream;
+        this.mByStreamCounts = counts;
+    }
+
+    /* Appends the index and the trailer pointing at it. */
+    public void write(RecordingWriter writer) throws IOException {
+        long offset = writer.position();
+        writer.writeInt(RecordingFormat.INDEX_MAGIC);
+        writer.writeInt(this.mCount);
+        for (int i = 0; i < this.mCount; i++) {
+            ByteBuffer buffer = writer.reserve(RecordingFormat.INDEX_ENTRY_SIZE);
+            buffer.put((byte) this.mStreamIds[i]);
+            buffer.putLong(this.mFirstTimestamps[i]);
+            buffer.putLong(this.mLastTimestamps[i]);
+            buffer.putLong(this.mOffsets[i]);
+            buffer.putInt(this.mRecordCounts[i]);
+        }
+        writer.writeLong(offset);
+        writer.writeInt(RecordingFormat.TRAILER_MAGIC);
+    }
+
+    /**
+     * Reads the index of a version 2 recording whose chunks start at dataOffset: from the footer
+     * when the file has a valid trailer, otherwise by walking the chunk headers up to the first
+     * incomplete chunk.
+     */
+    public static RecordingIndex read(FileChannel channel, long dataOffset) throws IOException {
+        long size = channel.size();
+        if (size - dataOffset >= RecordingFormat.TRAILER_SIZE + 8) {
+            ByteBuffer trailer = ByteBuffer.allocate(RecordingFormat.TRAILER_SIZE);
+            readFully(channel, trailer, size - RecordingFormat.TRAILER_SIZE);
+            long offset = trailer.getLong();
+            if (trailer.getInt() == RecordingFormat.TRAILER_MAGIC && offset >= dataOffset
+                    && offset <= size - RecordingFormat.TRAILER_SIZE - 8) {
+                RecordingIndex index = readFooter(channel, offset, size - RecordingFormat.TRAILER_SIZE);
+                if (index != null) {
+                    return index;
+                }
+            }
+        }
+        return scan(channel, dataOffset);
+    }
+
+    private static RecordingIndex readFooter(FileChannel channel, long offset, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - offset));
+        readFully(channel, buffer, offset);
+        int count = buffer.getInt() == RecordingFormat.INDEX_MAGIC ? buffer.getInt() : -1;
+        if (count < 0 || buffer.remaining() != count * RecordingFormat.INDEX_ENTRY_SIZE) {
+            return null;
+        }
+        RecordingIndex index = new RecordingIndex();
+        for (int i = 0; i < count; i++) {
+            int streamId = buffer.get() & 255;
+            long first = buffer.getLong();
+            long last = buffer.getLong();
+            index.add(streamId, first, last, buffer.getLong(), buffer.getInt());
+        }
+        return index;
+    }
+
+    /* Rebuilds the index from the chunk headers, reading only CHUNK_HEADER_SIZE bytes per chunk. */
+    public static RecordingIndex scan(FileChannel channel, long dataOffset) throws IOException {
+        RecordingIndex index = new RecordingIndex();
+        ByteBuffer header = ByteBuffer.allocate(RecordingFormat.CHUNK_HEADER_SIZE);
+        long size = channel.size();
+        long offset = dataOffset;
+        while (size - offset >= RecordingFormat.CHUNK_HEADER_SIZE) {
+            header.clear();
+            readFully(channel, header, offset);
+            if (header.getInt() != RecordingFormat.CHUNK_MAGIC) {
+                break;
+            }
+            int streamId = header.get() & 255;
+            header.get();
+            int count = header.getInt();
+            long first = header.getLong();
+            long last = header.getLong();
+            int length = header.getInt();
+            long end = offset + RecordingFormat.CHUNK_HEADER_SIZE + length;
+            if (length < 0 || end > size) {
+                break;
+            }
+            index.add(streamId, first, last, offset, count);
+            offset = end;
+        }
+        return index;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            at += (long) read;
+        }
+        buffer.flip();
+    }
+}
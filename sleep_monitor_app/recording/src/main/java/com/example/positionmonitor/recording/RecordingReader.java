@@ -0,0 +1,259 @@
+package com.example.positionmonitor.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped reader for batch analysis. The whole file is mapped read-only with
+ * {@link FileChannel#map} and every stream is exposed as column views: the timestamps as a
+ * {@link LongColumn} and every channel as a {@link FloatColumn}, both with random access by
+ * record index and O(1) sequential iteration.
+ *
+ * Fixed-stride data is read in place without copying: the records of legacy .dat files, version
+ * 1 single-stream files, row chunks and RAW columns of columnar chunks. Compressed columns
+ * (delta-of-delta timestamps, Gorilla, run-length and varint channels) cannot be addressed by
+ * index, so they are decoded once, on first request, into a heap buffer that the views then
+ * read like the mapped ones.
+ *
+ * Legacy .dat layout: long unix start time in ms, then records of long elapsedRealtimeNanos
+ * timestamp and one float per channel, big-endian. The file does not store the channel count, so
+ * the caller passes the channel names (see ROW_CHANNELS in the Python script for their order).
+ *
+ * Files are limited to 2 GB, far above a night of rows. Views remain valid after close(). Column
+ * views are single-threaded; each call returns a new view over the shared segments, so threads
+ * take their own.
+ */
+public class RecordingReader {
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final RecordingHeader mHeader;
+    /* Chunk index of version 2 files, null for the single-segment formats. */
+    private final RecordingIndex mIndex;
+    /* Offset and stride of the records of single-segment files. */
+    private final int mRecordsOffset;
+    private final int mRecordStride;
+    private final int mRecordCount;
+    private final LongColumn[] mTimestamps = new LongColumn[256];
+    private final FloatColumn[][] mChannels = new FloatColumn[256][];
+
+    private RecordingReader(RandomAccessFile file, MappedByteBuffer map, RecordingHeader header, RecordingIndex index,
+                            int recordsOffset, int recordStride, int recordCount) {
+        this.mFile = file;
+        this.mMap = map;
+        this.mHeader = header;
+        this.mIndex = index;
+        this.mRecordsOffset = recordsOffset;
+        this.mRecordStride = recordStride;
+        this.mRecordCount = recordCount;
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile file) throws IOException {
+        long size = file.length();
+        if (size > 2147483647L) {
+            throw new IOException("Recordings over 2 GB are not supported");
+        }
+        return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /* Maps a .rec file. Version 1 files must have a single stream. */
+    public static RecordingReader open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer map = map(raf);
+            if (map.capacity() < 10 || map.getInt(0) != RecordingFormat.MAGIC) {
+                throw new IOException("Not a recording file");
+            }
+            int version = map.getShort(4) & 0xFFFF;
+            int length = map.getInt(6);
+            byte[] body = new byte[length];
+            ByteBuffer bodyView = map.duplicate();
+            bodyView.position(10);
+            bodyView.get(body);
+            RecordingHeader header = RecordingHeader.parseBody(version, body);
+            int dataOffset = 10 + length;
+            if (version >= 2) {
+                RecordingIndex index = RecordingIndex.read(raf.getChannel(), (long) dataOffset);
+                return new RecordingReader(raf, map, header, index, 0, 0, 0);
+            }
+            if (header.getStreamCount() != 1) {
+                throw new IOException("Version 1 recordings with several streams cannot be mapped");
+            }
+            int stride = header.getStreamAt(0).getValuesSize() + 9;
+            int count = (map.capacity() - dataOffset) / stride;
+            return new RecordingReader(raf, map, header, null, dataOffset + 1, stride, count);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /* Maps a legacy .dat file whose records hold one float per named channel, as stream 0 "rows". */
+    public static RecordingReader openLegacy(File file, String[] channelNames) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer map = map(raf);
+            if (map.capacity() < 8) {
+                throw new IOException("Not a legacy recording");
+            }
+            ChannelInfo[] channels = new ChannelInfo[channelNames.length];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = new ChannelInfo(channelNames[i], "", RecordingFormat.TYPE_FLOAT32);
+            }
+            int stride = (channels.length * 4) + 8;
+            int count = (map.capacity() - 8) / stride;
+            /* The start time was taken when the file was created, close to the first record. */
+            long clockOrigin = count > 0 ? map.getLong(8) : 0;
+            RecordingHeader header = new RecordingHeader(map.getLong(0), clockOrigin, "elapsedRealtimeNanos",
+                    new StreamInfo[]{new StreamInfo(0, "rows", 0.0f, channels)});
+            return new RecordingReader(raf, map, header, null, 8, stride, count);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public RecordingHeader getHeader() {
+        return this.mHeader;
+    }
+
+    public int getRecordCount(int streamId) {
+        return getTimestamps(streamId).size();
+    }
+
+    public synchronized LongColumn getTimestamps(int streamId) {
+        StreamInfo stream = streamOf(streamId);
+        LongColumn column = this.mTimestamps[stream.getId()];
+        if (column == null) {
+            column = (LongColumn) build(stream, -1);
+            this.mTimestamps[stream.getId()] = column;
+        }
+        return new LongColumn(column.mStarts, column.mBuffers, column.mOffsets, column.mStrides);
+    }
+
+    public synchronized FloatColumn getChannel(int streamId, int channel) {
+        StreamInfo stream = streamOf(streamId);
+        if (channel < 0 || channel >= stream.getChannelCount()) {
+            throw new IllegalArgumentException("Stream " + stream.getName() + " has no channel " + channel);
+        }
+        FloatColumn[] columns = this.mChannels[stream.getId()];
+        if (columns == null) {
+            columns = new FloatColumn[stream.getChannelCount()];
+            this.mChannels[stream.getId()] = columns;
+        }
+        FloatColumn column = columns[channel];
+        if (column == null) {
+            column = (FloatColumn) build(stream, channel);
+            columns[channel] = column;
+        }
+        return new FloatColumn(column.mStarts, column.mBuffers, column.mOffsets, column.mStrides, column.mTypes);
+    }
+
+    public FloatColumn getChannel(int streamId, String name) {
+        int channel = streamOf(streamId).indexOf(name);
+        if (channel < 0) {
+            throw new IllegalArgumentException("No channel " + name);
+        }
+        return getChannel(streamId, channel);
+    }
+
+    private StreamInfo streamOf(int streamId) {
+        StreamInfo stream = this.mHeader.getStream(streamId);
+        if (stream == null) {
+            throw new IllegalArgumentException("Unknown stream " + streamId);
+        }
+        return stream;
+    }
+
+    /* Offset of a channel within a record, after the timestamp. */
+    private static int channelOffset(StreamInfo stream, int channel) {
+        int offset = 8;
+        for (int i = 0; i < channel; i++) {
+            offset += stream.getChannel(i).getSize();
+        }
+        return offset;
+    }
+
+    /* The column of channel, or of the timestamps for -1. */
+    private ColumnView build(StreamInfo stream, int channel) {
+        int type = channel < 0 ? RecordingFormat.TYPE_INT64 : stream.getChannel(channel).getType();
+        int offset = channel < 0 ? 0 : channelOffset(stream, channel);
+        if (this.mIndex == null) {
+            return view(channel, new int[]{0, this.mRecordCount}, new ByteBuffer[]{this.mMap},
+                    new int[]{this.mRecordsOffset + offset}, new int[]{this.mRecordStride}, new int[]{type});
+        }
+        int chunkCount = this.mIndex.getChunkCount(stream.getId());
+        int[] starts = new int[chunkCount + 1];
+        ByteBuffer[] buffers = new ByteBuffer[chunkCount];
+        int[] offsets = new int[chunkCount];
+        int[] strides = new int[chunkCount];
+        int[] types = new int[chunkCount];
+        int decodedCount = 0;
+        for (int k = 0; k < chunkCount; k++) {
+            int chunk = (int) this.mIndex.getOffset(this.mIndex.getChunk(stream.getId(), k));
+            int count = this.mMap.getInt(chunk + 6);
+            starts[k + 1] = starts[k] + count;
+            if ((this.mMap.get(chunk + 5) & 255) != RecordingFormat.ENCODING_ROWS
+                    && (channel < 0 || stream.getChannel(channel).getCodec() != RecordingFormat.CODEC_RAW)) {
+                decodedCount += count;
+            }
+        }
+        /* Compressed columns of all chunks share one buffer of decoded values. */
+        ByteBuffer decoded = decodedCount > 0 ? ByteBuffer.allocate(decodedCount * 8) : null;
+        ColumnDecoder decoder = channel < 0 ? ColumnDecoder.forTimestamps() : ColumnDecoder.forChannel(stream.getChannel(channel));
+        for (int k = 0; k < chunkCount; k++) {
+            int chunk = (int) this.mIndex.getOffset(this.mIndex.getChunk(stream.getId(), k));
+            int payload = chunk + RecordingFormat.CHUNK_HEADER_SIZE;
+            int count = starts[k + 1] - starts[k];
+            if ((this.mMap.get(chunk + 5) & 255) == RecordingFormat.ENCODING_ROWS) {
+                buffers[k] = this.mMap;
+                offsets[k] = payload + offset;
+                strides[k] = stream.getValuesSize() + 8;
+                types[k] = type;
+                continue;
+            }
+            int column = payload;
+            for (int i = 0; i <= channel; i++) {
+                column += this.mMap.getInt(column) + 4;
+            }
+            if (channel >= 0 && stream.getChannel(channel).getCodec() == RecordingFormat.CODEC_RAW) {
+                buffers[k] = this.mMap;
+                offsets[k] = column + 4;
+                strides[k] = stream.getChannel(channel).getSize();
+                types[k] = type;
+                continue;
+            }
+            buffers[k] = decoded;
+            offsets[k] = decoded.position();
+            strides[k] = 8;
+            decoder.reset(this.mMap, column + 4);
+            if (channel < 0) {
+                types[k] = RecordingFormat.TYPE_INT64;
+                for (int i = 0; i < count; i++) {
+                    decoded.putLong(decoder.nextLong());
+                }
+            } else {
+                types[k] = RecordingFormat.TYPE_FLOAT64;
+                for (int i = 0; i < count; i++) {
+                    decoded.putDouble(decoder.nextDouble());
+                }
+            }
+        }
+        return view(channel, starts, buffers, offsets, strides, types);
+    }
+
+    private static ColumnView view(int channel, int[] starts, ByteBuffer[] buffers, int[] offsets, int[] strides, int[] types) {
+        if (channel < 0) {
+            return new LongColumn(starts, buffers, offsets, strides);
+        }
+        return new FloatColumn(starts, buffers, offsets, strides, types);
+    }
+
+    /* Closes the file; the mapping and the views stay valid until they are collected. */
+    public void close() throws IOException {
+        this.mFile.close();
+    }
+}
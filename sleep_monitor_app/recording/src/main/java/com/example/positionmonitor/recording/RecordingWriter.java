@@ -0,0 +1,155 @@
+package com.example.positionmonitor.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Group-commit writer for recordings. Values are encoded big-endian into a reusable direct
+ * buffer of {@code blockSize} bytes, and the buffer is written to the channel in one call when
+ * the next value would not fit or when {@code commitIntervalNanos} has passed since the last
+ * commit. After a commit the file is forced to storage if {@code syncIntervalNanos} has passed
+ * since the last sync.
+ *
+ * A crashed process therefore loses at most one commit interval (or block) of data, and a
+ * power loss at most one sync interval. Not thread safe: one thread appends.
+ */
+public class RecordingWriter {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL_NANOS = 1000000000L;
+    public static final long DEFAULT_SYNC_INTERVAL_NANOS = 10000000000L;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final long mCommitIntervalNanos;
+    private final long mSyncIntervalNanos;
+    private long mLastCommitNanos;
+    private long mLastSyncNanos;
+    private boolean mDirty = false;
+    private volatile long mBytesWritten = 0;
+    private volatile long mCommitCount = 0;
+    private volatile long mSyncCount = 0;
+
+    public RecordingWriter(FileChannel channel) {
+        this(channel, DEFAULT_BLOCK_SIZE, DEFAULT_COMMIT_INTERVAL_NANOS, DEFAULT_SYNC_INTERVAL_NANOS);
+    }
+
+    /* A syncIntervalNanos of 0 forces after every commit; Long.MAX_VALUE only on close(). */
+    public RecordingWriter(FileChannel channel, int blockSize, long commitIntervalNanos, long syncIntervalNanos) {
+        this.mChannel = channel;
+        this.mBuffer = ByteBuffer.allocateDirect(blockSize);
+        this.mCommitIntervalNanos = commitIntervalNanos;
+        this.mSyncIntervalNanos = syncIntervalNanos;
+        long now = System.nanoTime();
+        this.mLastCommitNanos = now;
+        this.mLastSyncNanos = now;
+    }
+
+    public void writeLong(long value) throws IOException {
+        reserve(8);
+        this.mBuffer.putLong(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        reserve(4);
+        this.mBuffer.putInt(value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        reserve(4);
+        this.mBuffer.putFloat(value);
+    }
+
+    /* Appends one row: the timestamp followed by every value. */
+    public void writeRow(long timestamp, float[] values) throws IOException {
+        reserve((values.length * 4) + 8);
+        this.mBuffer.putLong(timestamp);
+        for (float value : values) {
+            this.mBuffer.putFloat(value);
+        }
+        onRowEnd();
+    }
+
+    /* Appends the remaining bytes of src, which may be larger than a block. */
+    public void write(ByteBuffer src) throws IOException {
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            if (!this.mBuffer.hasRemaining()) {
+                commit();
+            }
+            src.limit(Math.min(limit, src.position() + this.mBuffer.remaining()));
+            this.mBuffer.put(src);
+            src.limit(limit);
+            this.mDirty = true;
+        }
+    }
+
+    /* Bytes can be added directly to the buffer between reserve() and onRowEnd(). */
+    public ByteBuffer reserve(int length) throws IOException {
+        if (length > this.mBuffer.capacity()) {
+            throw new IllegalArgumentException("Row of " + length + " bytes exceeds the block size");
+        }
+        if (this.mBuffer.remaining() < length) {
+            commit();
+        }
+        this.mDirty = true;
+        return this.mBuffer;
+    }
+
+    /* Commits if the commit interval has passed; called after each complete row. */
+    public void onRowEnd() throws IOException {
+        if (System.nanoTime() - this.mLastCommitNanos >= this.mCommitIntervalNanos) {
+            commit();
+        }
+    }
+
+    /* Writes the buffered bytes, then forces them to storage if the sync interval has passed. */
+    public void commit() throws IOException {
+        long now = System.nanoTime();
+        this.mLastCommitNanos = now;
+        if (!this.mDirty) {
+            return;
+        }
+        this.mBuffer.flip();
+        while (this.mBuffer.hasRemaining()) {
+            this.mBytesWritten += (long) this.mChannel.write(this.mBuffer);
+        }
+        this.mBuffer.clear();
+        this.mDirty = false;
+        this.mCommitCount++;
+        if (now - this.mLastSyncNanos >= this.mSyncIntervalNanos) {
+            sync();
+        }
+    }
+
+    public void sync() throws IOException {
+        this.mChannel.force(false);
+        this.mLastSyncNanos = System.nanoTime();
+        this.mSyncCount++;
+    }
+
+    /* File position the next value will be written at. */
+    public long position() {
+        return this.mBytesWritten + ((long) this.mBuffer.position());
+    }
+
+    public void close() throws IOException {
+        try {
+            commit();
+            sync();
+        } finally {
+            this.mChannel.close();
+        }
+    }
+
+    public long getBytesWritten() {
+        return this.mBytesWritten;
+    }
+
+    public long getCommitCount() {
+        return this.mCommitCount;
+    }
+
+    public long getSyncCount() {
+        return this.mSyncCount;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.positionmonitor.recording;
+
+/**
+ * A group of channels sampled together: every record of the stream has one timestamp and one
+ * value per channel. Sources with different rates (e.g. the 100 Hz pleth next to the motion rows)
+ * are separate streams.
+ */
+public final class StreamInfo {
+    private final int mId;
+    private final String mName;
+    private final float mRateHz;
+    private final ChannelInfo[] mChannels;
+    private final int mRecordSize;
+
+    /* rateHz is the nominal record rate, 0 if the stream is irregular. */
+    public StreamInfo(int id, String name, float rateHz, ChannelInfo[] channels) {
+        if (id < 0 || id > 255) {
+            throw new IllegalArgumentException("Stream id " + id + " does not fit in a byte");
+        }
+        this.mId = id;
+        this.mName = name;
+        this.mRateHz = rateHz;
+        this.mChannels = channels.clone();
+        int size = 0;
+        for (ChannelInfo channel : channels) {
+            size += channel.getSize();
+        }
+        this.mRecordSize = size;
+    }
+
+    public int getId() {
+        return this.mId;
+    }
+
+    public String getName() {
+        return this.mName;
+    }
+
+    public float getRateHz() {
+        return this.mRateHz;
+    }
+
+    public int getChannelCount() {
+        return this.mChannels.length;
+    }
+
+    public ChannelInfo getChannel(int index) {
+        return this.mChannels[index];
+    }
+
+    /* Index of the named channel, or -1. */
+    public int indexOf(String name) {
+        for (int i = 0; i < this.mChannels.length; i++) {
+            if (this.mChannels[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* Bytes of channel values in one record, without the stream id and timestamp. */
+    public int getValuesSize() {
+        return this.mRecordSize;
+    }
+}
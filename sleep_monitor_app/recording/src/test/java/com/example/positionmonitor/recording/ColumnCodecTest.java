@@ -0,0 +1,250 @@
+package com.example.positionmonitor.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public class ColumnCodecTest {
+
+    private static ChannelInfo channel(int type, int codec) {
+        return new ChannelInfo("c", "", type, codec);
+    }
+
+    private static ByteBuffer encode(ColumnEncoder encoder, double[] values) {
+        for (double value : values) {
+            encoder.add(value);
+        }
+        encoder.finish();
+        ByteBuffer buffer = encoder.getBuffer();
+        ByteBuffer copy = ByteBuffer.allocate(buffer.position());
+        buffer.flip();
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+    private static double[] decode(ColumnDecoder decoder, ByteBuffer buffer, int count) {
+        decoder.reset(buffer, 0);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = decoder.nextDouble();
+        }
+        return values;
+    }
+
+    private static double[] roundTrip(ChannelInfo channel, double[] values) {
+        ByteBuffer encoded = encode(ColumnEncoder.forChannel(channel, 4096), values);
+        return decode(ColumnDecoder.forChannel(channel), encoded, values.length);
+    }
+
+    /* Compares bit patterns, so NaN and the sign of zero count. */
+    private static void assertSameFloats(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("value " + i, Float.floatToIntBits((float) expected[i]), Float.floatToIntBits((float) actual[i]));
+        }
+    }
+
+    private static void assertSameDoubles(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("value " + i, Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+        }
+    }
+
+    @Test
+    public void gorillaKeepsSpecialFloats() {
+        double[] values = {
+                1.5, Float.NaN, Float.NaN, 0.0, -0.0, 0.0, Float.MIN_VALUE, -Float.MIN_VALUE,
+                Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 1.5, 1.5
+        };
+        assertSameFloats(values, roundTrip(channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA), values));
+    }
+
+    @Test
+    public void gorillaKeepsSpecialDoubles() {
+        double[] values = {
+                1.5, Double.NaN, -0.0, 0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+                Double.NEGATIVE_INFINITY, 1.0 / 3.0, 1.0 / 3.0
+        };
+        assertSameDoubles(values, roundTrip(channel(RecordingFormat.TYPE_FLOAT64, RecordingFormat.CODEC_GORILLA), values));
+    }
+
+    @Test
+    public void gorillaFullWidthXor() {
+        /* Each pair differs in the top and bottom bit, so all 32 or 64 bits are meaningful. */
+        float a = Float.intBitsToFloat(0x00000001);
+        float b = Float.intBitsToFloat(0x80000000);
+        double[] floats = {a, b, a, b, 2.0f, a};
+        assertSameFloats(floats, roundTrip(channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA), floats));
+        double c = Double.longBitsToDouble(0x0000000000000001L);
+        double d = Double.longBitsToDouble(0x8000000000000000L);
+        double[] doubles = {c, d, c, d, 2.0, c};
+        assertSameDoubles(doubles, roundTrip(channel(RecordingFormat.TYPE_FLOAT64, RecordingFormat.CODEC_GORILLA), doubles));
+    }
+
+    @Test
+    public void gorillaRandomWalk() {
+        Random random = new Random(1);
+        double[] values = new double[500];
+        float value = 0.0f;
+        for (int i = 0; i < values.length; i++) {
+            value += (float) random.nextGaussian() * 0.01f;
+            values[i] = i % 50 == 0 ? values[Math.max(i - 1, 0)] : value;
+        }
+        assertSameFloats(values, roundTrip(channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA), values));
+    }
+
+    @Test
+    public void deltaVarintNarrowsLikeTheType() {
+        double[] values = {0, 127, 128, -128, -129, 300, -300, 1};
+        double[] int8 = {0, 127, -128, -128, 127, 44, -44, 1};
+        assertSameDoubles(int8, roundTrip(channel(RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_DELTA_VARINT), values));
+        double[] wide = {0, 32767, 32768, -32768, -32769, 70000, 5};
+        double[] int16 = {0, 32767, -32768, -32768, 32767, 4464, 5};
+        assertSameDoubles(int16, roundTrip(channel(RecordingFormat.TYPE_INT16, RecordingFormat.CODEC_DELTA_VARINT), wide));
+    }
+
+    @Test
+    public void runLengthNarrowsLikeTheType() {
+        double[] values = {200, 200, -56, 7, 7, 7, 32768};
+        double[] int8 = {-56, -56, -56, 7, 7, 7, 0};
+        assertSameDoubles(int8, roundTrip(channel(RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_RLE), values));
+        double[] int16 = {200, 200, -56, 7, 7, 7, -32768};
+        assertSameDoubles(int16, roundTrip(channel(RecordingFormat.TYPE_INT16, RecordingFormat.CODEC_RLE), values));
+    }
+
+    @Test
+    public void rawKeepsEveryType() {
+        double[] ints = {-128, 0, 127};
+        assertSameDoubles(ints, roundTrip(channel(RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_RAW), ints));
+        double[] longs = {Long.MIN_VALUE, 0, 1L << 53};
+        assertSameDoubles(longs, roundTrip(channel(RecordingFormat.TYPE_INT64, RecordingFormat.CODEC_RAW), longs));
+        double[] floats = {Float.NaN, -0.0, Float.MIN_VALUE};
+        assertSameFloats(floats, roundTrip(channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_RAW), floats));
+    }
+
+    @Test
+    public void timestampsRoundTrip() {
+        long[] timestamps = {Long.MIN_VALUE / 2, 0, 10, 20, 30, 25, 1000000000000L, 1000000000000L, Long.MAX_VALUE / 2};
+        ColumnEncoder encoder = ColumnEncoder.forTimestamps(4096);
+        for (long timestamp : timestamps) {
+            encoder.addLong(timestamp);
+        }
+        encoder.finish();
+        ColumnDecoder decoder = ColumnDecoder.forTimestamps();
+        decoder.reset(encoder.getBuffer(), 0);
+        for (long timestamp : timestamps) {
+            assertEquals(timestamp, decoder.nextLong());
+        }
+    }
+
+    @Test
+    public void runsRestartAtChunkBoundary() {
+        ChannelInfo info = channel(RecordingFormat.TYPE_INT16, RecordingFormat.CODEC_RLE);
+        ColumnEncoder encoder = ColumnEncoder.forChannel(info, 4096);
+        ColumnDecoder decoder = ColumnDecoder.forChannel(info);
+        /* One run spans both chunks; finish() closes it in the first and reset() starts over. */
+        ByteBuffer first = encode(encoder, new double[]{5, 9, 9, 9});
+        encoder.reset();
+        ByteBuffer second = encode(encoder, new double[]{9, 9, 4});
+        assertSameDoubles(new double[]{5, 9, 9, 9}, decode(decoder, first, 4));
+        assertSameDoubles(new double[]{9, 9, 4}, decode(decoder, second, 3));
+        /* The second chunk does not depend on the first: its run is relative to 0 again. */
+        ColumnEncoder fresh = ColumnEncoder.forChannel(info, 4096);
+        assertEquals(encode(fresh, new double[]{9, 9, 4}), second);
+    }
+
+    @Test
+    public void gorillaRestartsAtChunkBoundary() {
+        ChannelInfo info = channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA);
+        ColumnEncoder encoder = ColumnEncoder.forChannel(info, 4096);
+        ColumnDecoder decoder = ColumnDecoder.forChannel(info);
+        ByteBuffer first = encode(encoder, new double[]{1.25, 1.5, 1.75});
+        encoder.reset();
+        ByteBuffer second = encode(encoder, new double[]{1.75, 2.0});
+        assertSameFloats(new double[]{1.25, 1.5, 1.75}, decode(decoder, first, 3));
+        assertSameFloats(new double[]{1.75, 2.0}, decode(decoder, second, 2));
+    }
+
+    @Test
+    public void hasRoomLeavesSpaceForWorstCaseValue() {
+        ChannelInfo info = channel(RecordingFormat.TYPE_FLOAT64, RecordingFormat.CODEC_GORILLA);
+        ColumnEncoder encoder = ColumnEncoder.forChannel(info, 100);
+        Random random = new Random(2);
+        int count = 0;
+        while (encoder.hasRoom()) {
+            encoder.add(Double.longBitsToDouble(random.nextLong()));
+            count++;
+        }
+        encoder.finish();
+        assertTrue(count > 0);
+        assertTrue(encoder.getBuffer().position() <= encoder.getBuffer().capacity());
+    }
+
+    @Test
+    public void runLengthInt64FitsAfterHasRoom() {
+        ColumnEncoder encoder = ColumnEncoder.forChannel(channel(RecordingFormat.TYPE_INT64, RecordingFormat.CODEC_RLE), 64);
+        /* A run long enough for a 5-byte length varint, of a value with a 10-byte delta. */
+        for (int i = 0; i < (1 << 28); i++) {
+            encoder.addLong(Long.MIN_VALUE);
+        }
+        ByteBuffer buffer = encoder.getBuffer();
+        int position = buffer.limit();
+        buffer.position(position);
+        while (!encoder.hasRoom()) {
+            buffer.position(--position);
+        }
+        /* Flushes that run (15 bytes), then finish() writes the new one (11 bytes). */
+        encoder.addLong(0);
+        encoder.finish();
+        assertEquals(26, buffer.position() - position);
+    }
+
+    @Test
+    public void writerCutsChunksWhenColumnsAreFull() throws Exception {
+        ChannelInfo[] channels = {
+                channel(RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+                new ChannelInfo("level", "", RecordingFormat.TYPE_INT8, RecordingFormat.CODEC_RLE),
+                new ChannelInfo("counter", "", RecordingFormat.TYPE_INT32, RecordingFormat.CODEC_DELTA_VARINT)
+        };
+        RecordingHeader header = new RecordingHeader(0, 0, "test", new StreamInfo[]{new StreamInfo(0, "s", 100.0f, channels)});
+        File file = File.createTempFile("chunks", ".rec");
+        file.deleteOnExit();
+        RecordingFileWriter writer = new RecordingFileWriter(new RecordingWriter(new FileOutputStream(file).getChannel()),
+                header, RecordingFormat.ENCODING_COLUMNS, Long.MAX_VALUE, 1024);
+        Random random = new Random(3);
+        int count = 5000;
+        float[][] written = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] values = {(float) random.nextGaussian(), (float) (i / 100), (float) (i * 1000)};
+            written[i] = values;
+            writer.writeRecord(0, i * 10000000L, values);
+        }
+        writer.close();
+        RecordingFile recording = new RecordingFile(file);
+        try {
+            /* The time limit is never reached, so every chunk was cut by hasRoom(). */
+            assertTrue(recording.getIndex().getChunkCount(0) > 1);
+            RecordCursor cursor = recording.query(0, Long.MIN_VALUE, Long.MAX_VALUE);
+            float[] values = new float[3];
+            for (int i = 0; i < count; i++) {
+                assertTrue(cursor.next());
+                assertEquals(i * 10000000L, cursor.getTimestamp());
+                cursor.readValues(values);
+                assertEquals(Float.floatToIntBits(written[i][0]), Float.floatToIntBits(values[0]));
+                assertEquals(written[i][1], values[1], 0f);
+                assertEquals(written[i][2], values[2], 0f);
+            }
+            assertFalse(cursor.next());
+        } finally {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.positionmonitor.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class RecordingReaderTest {
+    private static final long START_NANOS = 1000000000L;
+    private static final int RECORDS = 600;
+
+    private static StreamInfo[] streams(boolean withEvents) {
+        StreamInfo rows = new StreamInfo(0, "rows", 100.0f, new ChannelInfo[]{
+                new ChannelInfo("wave", "", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_GORILLA),
+                new ChannelInfo("level", "", RecordingFormat.TYPE_INT16, RecordingFormat.CODEC_RLE),
+                new ChannelInfo("ramp", "", RecordingFormat.TYPE_FLOAT32, RecordingFormat.CODEC_RAW),
+                new ChannelInfo("counter", "", RecordingFormat.TYPE_INT32, RecordingFormat.CODEC_DELTA_VARINT)
+        });
+        if (!withEvents) {
+            return new StreamInfo[]{rows};
+        }
+        StreamInfo events = new StreamInfo(1, "events", 0.0f, new ChannelInfo[]{
+                new ChannelInfo("size", "", RecordingFormat.TYPE_FLOAT64, RecordingFormat.CODEC_GORILLA)
+        });
+        return new StreamInfo[]{rows, events};
+    }
+
+    private static RecordingHeader header(int version, boolean withEvents) {
+        return new RecordingHeader(version, 1500000000000L, START_NANOS, "test", streams(withEvents));
+    }
+
+    /* Timestamps at 100 Hz with some jitter so the delta-of-delta column is not constant. */
+    private static long timestamp(int i) {
+        return START_NANOS + (i * 10000000L) + ((i % 3) * 1000L);
+    }
+
+    private static float[] values(int i) {
+        return new float[]{(float) Math.sin(i * 0.1), (float) (i / 7), i * 0.25f, (float) ((i * 3) - 100)};
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File file = File.createTempFile("reader", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /* Writes records from (inclusive) to to (exclusive) of stream 0, and every fifth one to stream 1. */
+    private static File write(RecordingHeader header, int encoding, int from, int to) throws IOException {
+        File file = tempFile(".rec");
+        RecordingFileWriter writer = new RecordingFileWriter(new RecordingWriter(new FileOutputStream(file).getChannel()),
+                header, encoding, 1000000000L, 512);
+        try {
+            for (int i = from; i < to; i++) {
+                writer.writeRecord(0, timestamp(i), values(i));
+                if (header.getStreamCount() > 1 && i % 5 == 0) {
+                    writer.writeRecord(1, timestamp(i), new float[]{i * 1.5f});
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /* Version 1 has no chunks: each record is the stream id, the timestamp and the values. */
+    private static File writeVersion1(RecordingHeader header, int count) throws IOException {
+        File file = tempFile(".rec");
+        RecordingWriter writer = new RecordingWriter(new FileOutputStream(file).getChannel());
+        try {
+            header.write(writer);
+            StreamInfo stream = header.getStreamAt(0);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = writer.reserve(stream.getValuesSize() + 9);
+                buffer.put((byte) stream.getId());
+                buffer.putLong(timestamp(i));
+                float[] values = values(i);
+                for (int c = 0; c < values.length; c++) {
+                    RecordingFileWriter.putValue(buffer, stream.getChannel(c).getType(), values[c]);
+                }
+                writer.onRowEnd();
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /* Copies every chunk of part, with its index entry, to the end of writer. */
+    private static void copyChunks(File part, RecordingWriter writer, RecordingIndex index) throws IOException {
+        RecordingFile source = new RecordingFile(part);
+        RandomAccessFile in = new RandomAccessFile(part, "r");
+        try {
+            RecordingIndex sourceIndex = source.getIndex();
+            for (int e = 0; e < sourceIndex.getCount(); e++) {
+                long offset = sourceIndex.getOffset(e);
+                in.seek(offset + RecordingFormat.CHUNK_HEADER_SIZE - 4);
+                byte[] chunk = new byte[RecordingFormat.CHUNK_HEADER_SIZE + in.readInt()];
+                in.seek(offset);
+                in.readFully(chunk);
+                index.add(sourceIndex.getStreamId(e), sourceIndex.getFirstTimestamp(e), sourceIndex.getLastTimestamp(e),
+                        writer.position(), sourceIndex.getRecordCount(e));
+                writer.write(ByteBuffer.wrap(chunk));
+            }
+        } finally {
+            in.close();
+            source.close();
+        }
+    }
+
+    /* Stream 0 holds records from (inclusive) to to (exclusive) of the generated sequence. */
+    private static void assertGenerated(RecordingReader reader, int from, int to) {
+        LongColumn timestamps = reader.getTimestamps(0);
+        assertEquals(to - from, timestamps.size());
+        for (int c = 0; c < 4; c++) {
+            FloatColumn column = reader.getChannel(0, c);
+            for (int i = from; i < to; i++) {
+                assertEquals("timestamp " + i, timestamp(i), timestamps.get(i - from));
+                assertEquals("channel " + c + " record " + i, values(i)[c], column.get(i - from), 0.0f);
+            }
+        }
+    }
+
+    private static void assertRecord(RecordingReader reader, StreamInfo stream, int k, long timestamp, double[] values) {
+        assertEquals("stream " + stream.getId() + " record " + k, timestamp, reader.getTimestamps(stream.getId()).get(k));
+        for (int c = 0; c < stream.getChannelCount(); c++) {
+            assertEquals("stream " + stream.getId() + " channel " + c + " record " + k,
+                    values[c], reader.getChannel(stream.getId(), c).getDouble(k), 0.0);
+        }
+    }
+
+    /* Compares every stream of the mapped file against the sequential readers. */
+    private static void assertMatchesStreamingReaders(File file, RecordingReader reader) throws IOException {
+        RecordingHeader header = reader.getHeader();
+        int[] seen = new int[256];
+        RecordingFileReader in = new RecordingFileReader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (in.next()) {
+                StreamInfo stream = in.getStream();
+                double[] values = new double[stream.getChannelCount()];
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = in.getValue(c);
+                }
+                assertRecord(reader, stream, seen[stream.getId()]++, in.getTimestamp(), values);
+            }
+        } finally {
+            in.close();
+        }
+        for (int s = 0; s < header.getStreamCount(); s++) {
+            int id = header.getStreamAt(s).getId();
+            assertEquals(seen[id], reader.getRecordCount(id));
+        }
+        if (header.getVersion() < 2) {
+            return;
+        }
+        RecordingFile recording = new RecordingFile(file);
+        try {
+            for (int s = 0; s < header.getStreamCount(); s++) {
+                StreamInfo stream = header.getStreamAt(s);
+                RecordCursor cursor = recording.query(stream.getId(), Long.MIN_VALUE, Long.MAX_VALUE);
+                int k = 0;
+                while (cursor.next()) {
+                    double[] values = new double[stream.getChannelCount()];
+                    for (int c = 0; c < values.length; c++) {
+                        values[c] = cursor.getValue(c);
+                    }
+                    assertRecord(reader, stream, k++, cursor.getTimestamp(), values);
+                }
+                assertEquals(reader.getRecordCount(stream.getId()), k);
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
+    private static void assertReadsBack(File file, int count) throws IOException {
+        RecordingReader reader = RecordingReader.open(file);
+        try {
+            assertGenerated(reader, 0, count);
+            assertMatchesStreamingReaders(file, reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void version1MatchesStreamingReader() throws Exception {
+        assertReadsBack(writeVersion1(header(1, false), RECORDS), RECORDS);
+    }
+
+    @Test
+    public void version2RowsMatchStreamingReaders() throws Exception {
+        assertReadsBack(write(header(2, true), RecordingFormat.ENCODING_ROWS, 0, RECORDS), RECORDS);
+    }
+
+    @Test
+    public void version3RowsMatchStreamingReaders() throws Exception {
+        assertReadsBack(write(header(3, true), RecordingFormat.ENCODING_ROWS, 0, RECORDS), RECORDS);
+    }
+
+    @Test
+    public void version3ColumnsMatchStreamingReaders() throws Exception {
+        assertReadsBack(write(header(3, true), RecordingFormat.ENCODING_COLUMNS, 0, RECORDS), RECORDS);
+    }
+
+    @Test
+    public void version1RecordsSkipTheStreamId() throws Exception {
+        RecordingHeader header = header(1, false);
+        File file = writeVersion1(header, 10);
+        RecordingReader reader = RecordingReader.open(file);
+        try {
+            int stride = header.getStreamAt(0).getValuesSize() + 9;
+            int dataOffset = (int) file.length() - (10 * stride);
+            LongColumn timestamps = reader.getTimestamps(0);
+            assertEquals(stride, timestamps.mStrides[0]);
+            assertEquals(dataOffset + 1, timestamps.mOffsets[0]);
+            /* ramp follows the timestamp, wave and level. */
+            FloatColumn ramp = reader.getChannel(0, "ramp");
+            assertEquals(stride, ramp.mStrides[0]);
+            assertEquals(dataOffset + 1 + 8 + 4 + 2, ramp.mOffsets[0]);
+            assertGenerated(reader, 0, 10);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void mixedRowAndColumnChunks() throws Exception {
+        RecordingHeader header = header(3, true);
+        File rows = write(header, RecordingFormat.ENCODING_ROWS, 0, RECORDS / 2);
+        File columns = write(header, RecordingFormat.ENCODING_COLUMNS, RECORDS / 2, RECORDS);
+        File file = tempFile(".rec");
+        RecordingWriter writer = new RecordingWriter(new FileOutputStream(file).getChannel());
+        try {
+            header.write(writer);
+            RecordingIndex index = new RecordingIndex();
+            copyChunks(rows, writer, index);
+            copyChunks(columns, writer, index);
+            index.write(writer);
+        } finally {
+            writer.close();
+        }
+        RecordingReader reader = RecordingReader.open(file);
+        try {
+            assertGenerated(reader, 0, RECORDS);
+            assertMatchesStreamingReaders(file, reader);
+            /* Row chunks are read in place, the Gorilla column of the columnar chunks is decoded. */
+            FloatColumn wave = reader.getChannel(0, "wave");
+            assertTrue(wave.mSegmentCount > 2);
+            assertTrue(wave.mBuffers[0].isDirect());
+            assertFalse(wave.mBuffers[wave.mSegmentCount - 1].isDirect());
+            LongColumn timestamps = reader.getTimestamps(0);
+            assertEquals(RECORDS / 2, timestamps.search(timestamp(RECORDS / 2)));
+            assertEquals(RECORDS, timestamps.search(timestamp(RECORDS)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void rawColumnsAreReadInPlace() throws Exception {
+        File file = write(header(3, true), RecordingFormat.ENCODING_COLUMNS, 0, RECORDS);
+        RecordingReader reader = RecordingReader.open(file);
+        try {
+            FloatColumn ramp = reader.getChannel(0, "ramp");
+            FloatColumn wave = reader.getChannel(0, "wave");
+            LongColumn timestamps = reader.getTimestamps(0);
+            assertTrue(ramp.mSegmentCount > 1);
+            for (int k = 0; k < ramp.mSegmentCount; k++) {
+                assertTrue("segment " + k, ramp.mBuffers[k].isDirect());
+                assertEquals(4, ramp.mStrides[k]);
+                assertEquals(RecordingFormat.TYPE_FLOAT32, ramp.mTypes[k]);
+                assertFalse("segment " + k, wave.mBuffers[k].isDirect());
+                assertFalse("segment " + k, timestamps.mBuffers[k].isDirect());
+            }
+            float[] values = new float[RECORDS];
+            ramp.get(0, values, 0, RECORDS);
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(values(i)[2], values[i], 0.0f);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void legacyIgnoresTruncatedRecord() throws Exception {
+        File file = tempFile(".dat");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeLong(1500000000000L);
+            for (int i = 0; i < 10; i++) {
+                out.writeLong(timestamp(i));
+                out.writeFloat(i);
+                out.writeFloat(i * 2.0f);
+                out.writeFloat(-i);
+            }
+            /* A record cut off by the app being killed. */
+            out.writeLong(timestamp(10));
+            out.writeFloat(10.0f);
+        } finally {
+            out.close();
+        }
+        RecordingReader reader = RecordingReader.openLegacy(file, new String[]{"x", "y", "z"});
+        try {
+            assertEquals(1500000000000L, reader.getHeader().getStartUnixMillis());
+            assertEquals(timestamp(0), reader.getHeader().getClockOriginNanos());
+            assertEquals(10, reader.getRecordCount(0));
+            LongColumn timestamps = reader.getTimestamps(0);
+            FloatColumn y = reader.getChannel(0, "y");
+            FloatColumn z = reader.getChannel(0, 2);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(timestamp(i), timestamps.get(i));
+                assertEquals(i * 2.0f, y.get(i), 0.0f);
+                assertEquals(-i, z.get(i), 0.0f);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}